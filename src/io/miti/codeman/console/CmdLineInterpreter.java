@@ -13,11 +13,16 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
 
 import javax.swing.JTextArea;
 import javax.swing.SwingUtilities;
 
+import org.apache.lucene.queryparser.classic.ParseException;
+
 import io.miti.codeman.domain.Endpoint;
+import io.miti.codeman.domain.SearchOptions;
 import io.miti.codeman.domain.SearchResult;
 import io.miti.codeman.gui.CodeMan;
 import io.miti.codeman.gui.SearchDlg;
@@ -26,11 +31,20 @@ import io.miti.codeman.interpret.ConfigParser;
 import io.miti.codeman.interpret.LineParser;
 import io.miti.codeman.managers.EndpointsManager;
 import io.miti.codeman.managers.TabViewManager;
+import io.miti.codeman.managers.WorkspaceManager;
 import io.miti.codeman.managers.ZipManager;
+import io.miti.codeman.util.ArchiveReader;
 import io.miti.codeman.util.Content;
+import io.miti.codeman.util.FacetCounts;
+import io.miti.codeman.util.FuzzyFinder;
 import io.miti.codeman.util.IContentHandler;
+import io.miti.codeman.util.IResultHandler;
 import io.miti.codeman.util.ListFormatter;
 import io.miti.codeman.util.Logger;
+import io.miti.codeman.util.SearchPage;
+import io.miti.codeman.util.SlowQueryLog;
+import io.miti.codeman.util.SnippetBuilder.Snippet;
+import io.miti.codeman.util.WindowState;
 
 /**
  * Processes commands entered by the user.
@@ -49,6 +63,36 @@ public final class CmdLineInterpreter implements Interpreter, IContentHandler
   /** The results of the last search, list endpoints or list files. */
   private List<String> resultFilenames = new ArrayList<String>(10);
   
+  /** The installed directory of each result of the last workspace search. */
+  private List<File> resultDirs = new ArrayList<File>(10);
+  
+  /** The first matching line of each result of the last search. */
+  private List<Integer> resultLines = new ArrayList<Integer>(10);
+  
+  /** The number of search results shown on a page. */
+  private static final int SEARCH_PAGE_SIZE = 25;
+  
+  /** The number of paths written at a time by a streaming search. */
+  private static final int STREAM_BATCH_SIZE = 100;
+  
+  /** The number of values shown for each facet. */
+  private static final int MAX_FACET_VALUES = 8;
+  
+  /** The number of entries shown from the slow query log. */
+  private static final int SLOW_LOG_SIZE = 10;
+  
+  /** The number of files shown by a fuzzy find. */
+  private static final int FIND_SIZE = 25;
+  
+  /** The options of the last search, for fetching its next page. */
+  private SearchOptions lastSearch = null;
+  
+  /** The last page of results shown for the last search. */
+  private SearchPage lastPage = null;
+  
+  /** The query of the last workspace search, or null if the last search was not one. */
+  private String lastWorkspaceQuery = null;
+  
   /**
    * Default constructor.
    */
@@ -598,7 +642,7 @@ public final class CmdLineInterpreter implements Interpreter, IContentHandler
   public boolean queryEndpoints(final String query)
   {
     // Delete any entries in the saved result list
-    resultFilenames.clear();
+    clearResults();
     
     // Check the directory
     File dir = ZipManager.getInstance().getOutputDirectory();
@@ -657,7 +701,7 @@ public final class CmdLineInterpreter implements Interpreter, IContentHandler
   public boolean queryFiles(final String query)
   {
     // Delete any entries in the saved result list
-    resultFilenames.clear();
+    clearResults();
     
     // Check the directory
     File dir = ZipManager.getInstance().getOutputDirectory();
@@ -692,6 +736,40 @@ public final class CmdLineInterpreter implements Interpreter, IContentHandler
   }
   
   
+  public boolean findFiles(final Object[] args)
+  {
+    // Delete any entries in the saved result list
+    clearResults();
+    
+    // Rank the file names against the pattern
+    List<FuzzyFinder.Match> list = ZipManager.getInstance().findFiles((String) args[1], FIND_SIZE);
+    if (list == null)
+    {
+      JConsole.addText("\nNo file is open.\n");
+      return true;
+    }
+    else if (list.isEmpty())
+    {
+      JConsole.addText("\nNo files were found.\n");
+      return true;
+    }
+    
+    // Copy the filenames
+    for (FuzzyFinder.Match match : list)
+    {
+      resultFilenames.add(match.getName());
+    }
+    
+    // Build the table
+    String table = new ListFormatter().getTable(list,
+        new String[]{"#", "score", "name"},
+        new String[]{"#", "Score", "Filename"});
+    JConsole.addText("\n" + table);
+    
+    return true;
+  }
+  
+  
   /**
    * Convert a date from a number into a formatted date.
    * 
@@ -715,24 +793,388 @@ public final class CmdLineInterpreter implements Interpreter, IContentHandler
   public boolean search(final Object[] args)
   {
     // Delete any entries in the saved result list
-    resultFilenames.clear();
+    clearResults();
     
-    // Search the Lucene index
-    final String query = (String) args[1];
-    List<SearchResult> results = ZipManager.getInstance().search(query);
-    if ((results == null) || (results.size() < 1))
+    // Search the Lucene index for the first page of results
+    lastSearch = new SearchOptions((String) args[1]);
+    lastSearch.setCountFacets(true);
+    lastPage = ZipManager.getInstance().searchPage(lastSearch, null, SEARCH_PAGE_SIZE);
+    if (lastPage.getResults().isEmpty())
     {
       JConsole.addText("\nNo search results were found\n");
     }
     else
     {
-      printSearchResults(results);
+      printSearchPage(lastPage);
+    }
+    
+    return true;
+  }
+  
+  
+  public boolean searchMore(final Object[] args)
+  {
+    if ((lastPage == null) || !lastPage.hasMore())
+    {
+      JConsole.addText("\nThere are no more search results\n");
+      return true;
+    }
+    else if (lastWorkspaceQuery != null)
+    {
+      return showWorkspacePage();
+    }
+    
+    // Fetch the page after the last one shown
+    lastPage = ZipManager.getInstance().searchPage(lastSearch, lastPage, SEARCH_PAGE_SIZE);
+    if (lastPage.getResults().isEmpty())
+    {
+      JConsole.addText("\nThere are no more search results\n");
+    }
+    else
+    {
+      printSearchPage(lastPage);
     }
     
     return true;
   }
   
   
+  public boolean slowLog(final Object[] args)
+  {
+    final List<SlowQueryLog.Entry> entries =
+        SlowQueryLog.getInstance().getWorst(SLOW_LOG_SIZE);
+    if (entries.isEmpty())
+    {
+      JConsole.addText(String.format("%nNo searches have taken %d ms or longer%n",
+          SlowQueryLog.getInstance().getThresholdMillis()));
+      return true;
+    }
+    
+    String table = new ListFormatter().getTable(entries,
+        new String[]{"#", "millis", "hits", "truncated", "time", "query"},
+        new String[]{"#", "Millis", "Hits", "Truncated", "Time", "Query"});
+    JConsole.addText("\n" + table);
+    
+    return true;
+  }
+  
+  
+  public boolean slowLogClear(final Object[] args)
+  {
+    SlowQueryLog.getInstance().clear();
+    JConsole.addText("\nThe slow query log was cleared\n");
+    return true;
+  }
+  
+  
+  public boolean slowLogMillis(final Object[] args)
+  {
+    // Keep the threshold for the next session too
+    final long millis = Math.max(0L, ((Long) args[2]).longValue());
+    SlowQueryLog.getInstance().setThresholdMillis(millis);
+    WindowState.getInstance().setSlowQueryMillis(millis);
+    JConsole.addText(String.format("%nSearches taking %d ms or longer will be logged%n", millis));
+    return true;
+  }
+  
+  
+  public boolean setTimeout(final Object[] args)
+  {
+    final long millis = Math.max(0L, ((Long) args[1]).longValue());
+    WindowState.getInstance().setSearchTimeoutMillis(millis);
+    JConsole.addText((millis == 0L) ? "\nSearches have no time limit\n"
+        : String.format("%nSearches stop collecting hits after %d ms%n", millis));
+    return true;
+  }
+  
+  
+  public boolean searchPaths(final Object[] args)
+  {
+    // Delete any entries in the saved result list
+    clearResults();
+    
+    // Write the paths in batches as they are found
+    final StringBuilder sb = new StringBuilder(4096);
+    sb.append('\n');
+    final IResultHandler handler = new IResultHandler()
+    {
+      @Override
+      public boolean processResult(final String path)
+      {
+        resultFilenames.add(path);
+        sb.append(resultFilenames.size()).append("  ").append(path).append('\n');
+        if ((resultFilenames.size() % STREAM_BATCH_SIZE) == 0)
+        {
+          JConsole.addText(sb.toString());
+          sb.setLength(0);
+        }
+        
+        return true;
+      }
+    };
+    
+    final int count = ZipManager.getInstance().streamSearch(
+        new SearchOptions((String) args[1]), handler);
+    
+    if (count == 0)
+    {
+      JConsole.addText("\nNo search results were found\n");
+    }
+    else
+    {
+      JConsole.addText(sb.append(count).append(" matching files\n").toString());
+    }
+    
+    return true;
+  }
+  
+  
+  public boolean grep(final Object[] args)
+  {
+    return grepText((String) args[1], false);
+  }
+  
+  
+  public boolean grepRegex(final Object[] args)
+  {
+    return grepText((String) args[1], true);
+  }
+  
+  
+  /**
+   * Search the text of the files for a literal string or regular expression.
+   * 
+   * @param text the search text
+   * @param regex whether the text is a regular expression
+   * @return whether the status bar text was modified
+   */
+  private boolean grepText(final String text, final boolean regex)
+  {
+    // Delete any entries in the saved result list
+    clearResults();
+    
+    List<SearchResult> results = null;
+    try
+    {
+      results = ZipManager.getInstance().grep(text, regex);
+    }
+    catch (PatternSyntaxException e)
+    {
+      JConsole.addText("\nInvalid regular expression: " + e.getDescription() + "\n");
+      return true;
+    }
+    
+    if ((results == null) || (results.size() < 1))
+    {
+      JConsole.addText("\nNo matches were found\n");
+      return true;
+    }
+    
+    // Copy the filenames
+    for (SearchResult sr : results)
+    {
+      resultFilenames.add(sr.getDoc());
+    }
+    
+    String table = new ListFormatter().getTable(results,
+        new String[]{"#", "matches", "doc"},
+        new String[]{"#", "Matches", "File"});
+    JConsole.addText("\n" + table);
+    
+    return true;
+  }
+  
+  
+  public boolean workspaceAdd(final Object[] args)
+  {
+    final String msg = WorkspaceManager.getInstance().add((String) args[2]);
+    JConsole.addText((msg == null) ? "\nThe directory was added to the workspace\n"
+                                   : ("\nError: " + msg + "\n"));
+    return true;
+  }
+  
+  
+  public boolean workspaceRemove(final Object[] args)
+  {
+    final boolean removed = WorkspaceManager.getInstance().remove((String) args[2]);
+    JConsole.addText(removed ? "\nThe directory was removed from the workspace\n"
+                             : "\nError: The directory is not in the workspace\n");
+    return true;
+  }
+  
+  
+  public boolean workspaceList(final Object[] args)
+  {
+    final WorkspaceManager mgr = WorkspaceManager.getInstance();
+    final List<File> dirs = mgr.getDirectories();
+    if (dirs.isEmpty())
+    {
+      JConsole.addText("\nThe workspace is empty\n");
+      return true;
+    }
+    
+    StringBuilder sb = new StringBuilder(200);
+    sb.append("\n");
+    int num = 1;
+    for (File dir : dirs)
+    {
+      sb.append(num++).append(". ").append(dir.getPath())
+        .append("  (").append(mgr.getZipName(dir)).append(")\n");
+    }
+    JConsole.addText(sb.toString());
+    
+    return true;
+  }
+  
+  
+  public boolean workspaceSearch(final Object[] args)
+  {
+    // Delete any entries in the saved result list
+    clearResults();
+    
+    // Search the indexes of every directory in the workspace
+    lastWorkspaceQuery = (String) args[2];
+    return showWorkspacePage();
+  }
+  
+  
+  /**
+   * Fetch and print the next page of the last workspace search, or
+   * its first page if none has been shown.
+   * 
+   * @return whether the status bar text was modified
+   */
+  private boolean showWorkspacePage()
+  {
+    try
+    {
+      lastPage = WorkspaceManager.getInstance().searchPage(lastWorkspaceQuery,
+          lastPage, SEARCH_PAGE_SIZE);
+    }
+    catch (ParseException e)
+    {
+      JConsole.addText("\nInvalid query: " + e.getMessage() + "\n");
+      clearResults();
+      return true;
+    }
+    
+    if (lastPage.getResults().isEmpty())
+    {
+      JConsole.addText((lastPage.getStart() == 0) ? "\nNo search results were found\n"
+                                                  : "\nThere are no more search results\n");
+      return true;
+    }
+    
+    // Save the file names and where they came from
+    final StringBuilder sb = new StringBuilder(4096);
+    sb.append('\n');
+    for (SearchResult sr : lastPage.getResults())
+    {
+      resultFilenames.add(sr.getDoc());
+      resultDirs.add(sr.getSourceDir());
+      sb.append(String.format("%4d  %s  %s  %s%n", resultFilenames.size(),
+          sr.getFormattedScore(), sr.getSource(), sr.getDoc()));
+    }
+    if (lastPage.isTruncated())
+    {
+      sb.append("The search reached its time limit, so these results are partial\n");
+    }
+    JConsole.addText(sb.toString());
+    JConsole.addText(String.format("Results %d-%d of %d%s%n", lastPage.getStart() + 1,
+        lastPage.getEnd(), lastPage.getTotalHits(),
+        (lastPage.hasMore() ? "; enter 'more' for the next page" : "")));
+    
+    return true;
+  }
+  
+  
+  /**
+   * Clear the saved results of the last command.
+   */
+  private void clearResults()
+  {
+    resultFilenames.clear();
+    resultDirs.clear();
+    resultLines.clear();
+    lastSearch = null;
+    lastPage = null;
+    lastWorkspaceQuery = null;
+  }
+  
+  
+  /**
+   * Print a page of search results, numbered after the earlier pages.
+   * 
+   * @param page the page of results
+   */
+  private void printSearchPage(final SearchPage page)
+  {
+    // Find the best matching lines of each file, within the time budget
+    ZipManager.getInstance().addSnippets(page.getResults(), lastSearch.getQuery(),
+        WindowState.getInstance().getSnippetMillis());
+    
+    // Show each file with its snippets under it
+    final StringBuilder sb = new StringBuilder(4096);
+    sb.append('\n');
+    for (SearchResult sr : page.getResults())
+    {
+      resultFilenames.add(sr.getDoc());
+      resultLines.add(Integer.valueOf(sr.getFirstLine()));
+      sb.append(String.format("%4d  %s  %s%n", resultFilenames.size(),
+          sr.getFormattedScore(), sr.getDoc()));
+      if (sr.getSnippets() != null)
+      {
+        for (Snippet snippet : sr.getSnippets())
+        {
+          sb.append(String.format("      %6d: %s%n", snippet.getLine(), snippet.getText()));
+        }
+      }
+    }
+    if (page.isTruncated())
+    {
+      sb.append("The search reached its time limit, so these results are partial\n");
+    }
+    JConsole.addText(sb.toString());
+    JConsole.addText(String.format("Results %d-%d of %d%s%n", page.getStart() + 1,
+        page.getEnd(), page.getTotalHits(),
+        (page.hasMore() ? "; enter 'more' for the next page" : "")));
+    printFacets(page.getFacets());
+  }
+  
+  
+  /**
+   * Print the values of each facet with the most hits.
+   * 
+   * @param facets the facet counts, or null if they were not counted
+   */
+  private void printFacets(final FacetCounts facets)
+  {
+    if (facets == null)
+    {
+      return;
+    }
+    
+    final StringBuilder sb = new StringBuilder(512);
+    for (String field : FacetCounts.FIELDS)
+    {
+      final List<Map.Entry<String, Integer>> top = facets.getTop(field, MAX_FACET_VALUES);
+      if (top.isEmpty())
+      {
+        continue;
+      }
+      
+      sb.append(FacetCounts.getLabel(field)).append(':');
+      for (Map.Entry<String, Integer> entry : top)
+      {
+        sb.append("  ").append(FacetCounts.getDisplayValue(entry.getKey()))
+          .append(" (").append(entry.getValue()).append(')');
+      }
+      sb.append('\n');
+    }
+    JConsole.addText(sb.toString());
+  }
+  
+  
   private void printSearchResults(List<SearchResult> results)
   {
     // Copy the filenames
@@ -786,6 +1228,18 @@ public final class CmdLineInterpreter implements Interpreter, IContentHandler
   
   
   private void openFileByName(final String name)
+  {
+    openFileByName(name, 0);
+  }
+  
+  
+  /**
+   * Open a file from the zip in a tab.
+   * 
+   * @param name the name of the file
+   * @param line the line to show, starting at 1, or zero for the top
+   */
+  private void openFileByName(final String name, final int line)
   {
     // If the file exists, list its contents
     String text = ZipManager.getInstance().getFileText(name);
@@ -796,7 +1250,39 @@ public final class CmdLineInterpreter implements Interpreter, IContentHandler
     else
     {
       JConsole.addText("\nOpening file " + name + "\n");
-      TabViewManager.getInstance().addFileFromZip(name, text);
+      TabViewManager.getInstance().addFileFromZip(name, text, line);
+    }
+  }
+  
+  
+  /**
+   * Show a file from a zip file in the workspace.
+   * 
+   * @param dir the installed directory of the zip file
+   * @param name the name of the file
+   * @param openTab whether to open the file in a tab, or list it in the console
+   */
+  private void openWorkspaceFile(final File dir, final String name, final boolean openTab)
+  {
+    String text = WorkspaceManager.getInstance().getFileText(dir, name);
+    if (text == null)
+    {
+      JConsole.addText("\nThe file was not found\n");
+    }
+    else if (openTab)
+    {
+      // Name the tab after the zip file, since the file may be in several zips
+      final String zipName = WorkspaceManager.getInstance().getZipName(dir);
+      final String tabName = (zipName == null) ? name
+          : ArchiveReader.join(new File(zipName).getName(), name);
+      JConsole.addText("\nOpening file " + tabName + "\n");
+      TabViewManager.getInstance().addFileFromZip(tabName, text);
+    }
+    else
+    {
+      JConsole.addText("\n");
+      JConsole.addText(text);
+      JConsole.addText("\n");
     }
   }
   
@@ -836,10 +1322,17 @@ public final class CmdLineInterpreter implements Interpreter, IContentHandler
     else
     {
       final String name = resultFilenames.get(resNum - 1);
+      final File dir = (resNum <= resultDirs.size()) ? resultDirs.get(resNum - 1) : null;
+      final int line = (resNum <= resultLines.size())
+          ? resultLines.get(resNum - 1).intValue() : 0;
       
-      if (openTab)
+      if (dir != null)
+      {
+        openWorkspaceFile(dir, name, openTab);
+      }
+      else if (openTab)
       {
-        openFileByName(name);
+        openFileByName(name, line);
       }
       else
       {
@@ -907,7 +1400,7 @@ public final class CmdLineInterpreter implements Interpreter, IContentHandler
     }
     
     // Delete any entries in the saved result list
-    resultFilenames.clear();
+    clearResults();
     
     if (results.size() == 0)
     {
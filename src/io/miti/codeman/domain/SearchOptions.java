@@ -0,0 +1,151 @@
+package io.miti.codeman.domain;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The options of an index search: the query string, the patterns the
+ * file and directory names must match, and the maximum number of
+ * results.  The name patterns are applied by the index as filters.
+ */
+public class SearchOptions
+{
+  private String query = null;
+  private List<String> filePatterns = new ArrayList<String>(4);
+  private List<String> dirPatterns = new ArrayList<String>(4);
+  private int maxResults = 0;
+  private Map<String, String> facetFilters = new LinkedHashMap<String, String>(4);
+  private boolean countFacets = false;
+  
+  /** Default constructor. */
+  public SearchOptions()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Constructor for a search without filters or a limit.
+   * 
+   * @param sQuery the query string
+   */
+  public SearchOptions(final String sQuery)
+  {
+    query = sQuery;
+  }
+  
+  
+  public String getQuery()
+  {
+    return query;
+  }
+  
+  
+  public void setQuery(final String sQuery)
+  {
+    query = sQuery;
+  }
+  
+  
+  /**
+   * Return the file name patterns.  A result's file name has to match
+   * one of them, ignoring case, where '*' and '?' are wildcards.
+   * 
+   * @return the file name patterns, which may be empty
+   */
+  public List<String> getFilePatterns()
+  {
+    return filePatterns;
+  }
+  
+  
+  public void setFilePatterns(final List<String> pFilePatterns)
+  {
+    filePatterns = (pFilePatterns == null) ? new ArrayList<String>(0) : pFilePatterns;
+  }
+  
+  
+  /**
+   * Return the directory patterns.  A result's directory has to contain
+   * one of them.  A pattern ending in a slash matches that directory
+   * and everything below it instead.
+   * 
+   * @return the directory patterns, which may be empty
+   */
+  public List<String> getDirPatterns()
+  {
+    return dirPatterns;
+  }
+  
+  
+  public void setDirPatterns(final List<String> pDirPatterns)
+  {
+    dirPatterns = (pDirPatterns == null) ? new ArrayList<String>(0) : pDirPatterns;
+  }
+  
+  
+  /**
+   * Return the maximum number of results.
+   * 
+   * @return the maximum number of results, or zero for no limit
+   */
+  public int getMaxResults()
+  {
+    return maxResults;
+  }
+  
+  
+  public void setMaxResults(final int nMaxResults)
+  {
+    maxResults = nMaxResults;
+  }
+  
+  
+  /**
+   * Return the facet values the results must have.
+   * 
+   * @return the values, by facet field
+   */
+  public Map<String, String> getFacetFilters()
+  {
+    return facetFilters;
+  }
+  
+  
+  public void setFacetFilters(final Map<String, String> pFacetFilters)
+  {
+    facetFilters = (pFacetFilters == null)
+        ? new LinkedHashMap<String, String>(0) : pFacetFilters;
+  }
+  
+  
+  /**
+   * Return whether to count the facet values of the hits, which is
+   * done when the first page of results is collected.
+   * 
+   * @return whether to count the facets
+   */
+  public boolean isCountFacets()
+  {
+    return countFacets;
+  }
+  
+  
+  public void setCountFacets(final boolean bCountFacets)
+  {
+    countFacets = bCountFacets;
+  }
+  
+  
+  /**
+   * Return whether the search filters the results by name.
+   * 
+   * @return whether there are file or directory patterns, or facet values
+   */
+  public boolean hasFilters()
+  {
+    return (!filePatterns.isEmpty() || !dirPatterns.isEmpty() || !facetFilters.isEmpty());
+  }
+}
@@ -1,12 +1,21 @@
 package io.miti.codeman.domain;
 
+import java.io.File;
 import java.text.DecimalFormat;
+import java.util.List;
+
+import io.miti.codeman.util.SnippetBuilder.Snippet;
 
 public class SearchResult
 {
   private String doc = null;
   private double score = 0.0;
   private String formattedScore = null;
+  private int matches = 0;
+  private String source = null;
+  private File sourceDir = null;
+  private List<Snippet> snippets = null;
+  private boolean text = true;
   
   private static final DecimalFormat formatter;
   
@@ -30,6 +39,37 @@ public class SearchResult
   }
   
   
+  /**
+   * Constructor for a result from a workspace search.
+   * 
+   * @param sDoc the file name
+   * @param dScore the score
+   * @param sSource the name of the zip file the result came from
+   * @param pSourceDir the installed directory of the zip file
+   */
+  public SearchResult(final String sDoc, final double dScore,
+                      final String sSource, final File pSourceDir)
+  {
+    this(sDoc, dScore);
+    source = sSource;
+    sourceDir = pSourceDir;
+  }
+  
+  
+  /**
+   * Constructor for a text search, where the score is the number
+   * of matches in the file.
+   * 
+   * @param sDoc the file name
+   * @param nMatches the number of matches
+   */
+  public SearchResult(final String sDoc, final int nMatches)
+  {
+    this(sDoc, (double) nMatches);
+    matches = nMatches;
+  }
+  
+  
   public String getDoc()
   {
     return doc;
@@ -46,4 +86,68 @@ public class SearchResult
   {
     return formattedScore;
   }
+  
+  
+  public int getMatches()
+  {
+    return matches;
+  }
+  
+  
+  public String getSource()
+  {
+    return source;
+  }
+  
+  
+  public File getSourceDir()
+  {
+    return sourceDir;
+  }
+  
+  
+  /**
+   * Return the best matching lines of the file.
+   * 
+   * @return the snippets, or null if they were not built
+   */
+  public List<Snippet> getSnippets()
+  {
+    return snippets;
+  }
+  
+  
+  public void setSnippets(final List<Snippet> pSnippets)
+  {
+    snippets = pSnippets;
+  }
+  
+  
+  /**
+   * Return whether the text of the file is indexed.  Only the path of
+   * a binary, oversized or excluded file is indexed.
+   * 
+   * @return whether the file has indexed text
+   */
+  public boolean hasText()
+  {
+    return text;
+  }
+  
+  
+  public void setHasText(final boolean bText)
+  {
+    text = bText;
+  }
+  
+  
+  /**
+   * Return the number of the first matching line of the file.
+   * 
+   * @return the line number, or zero if it is not known
+   */
+  public int getFirstLine()
+  {
+    return (((snippets == null) || snippets.isEmpty()) ? 0 : snippets.get(0).getLine());
+  }
 }
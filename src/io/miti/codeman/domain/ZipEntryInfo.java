@@ -0,0 +1,112 @@
+package io.miti.codeman.domain;
+
+import java.util.zip.ZipEntry;
+
+/**
+ * The metadata for one entry in a zip file, as listed in the
+ * zip's central directory.
+ */
+public final class ZipEntryInfo
+{
+  /** The name of the entry. */
+  private String name = null;
+  
+  /** The uncompressed size, or -1 if unknown. */
+  private long size = -1L;
+  
+  /** The compressed size, or -1 if unknown. */
+  private long compressedSize = -1L;
+  
+  /** The CRC-32 of the uncompressed data, or -1 if unknown. */
+  private long crc = -1L;
+  
+  /** The compression method (ZipEntry.STORED or ZipEntry.DEFLATED). */
+  private int method = -1;
+  
+  /** The modification time. */
+  private long time = -1L;
+  
+  
+  /** Default constructor. */
+  public ZipEntryInfo()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param entry the zip entry to copy the metadata from
+   */
+  public ZipEntryInfo(final ZipEntry entry)
+  {
+    this(entry.getName(), entry);
+  }
+  
+  
+  /**
+   * Constructor for an entry in a nested archive, whose name is a
+   * composite path.  Entries read from a stream may not know their
+   * sizes and CRC.
+   * 
+   * @param sName the name of the entry
+   * @param entry the zip entry to copy the metadata from
+   */
+  public ZipEntryInfo(final String sName, final ZipEntry entry)
+  {
+    name = sName;
+    size = entry.getSize();
+    compressedSize = entry.getCompressedSize();
+    crc = entry.getCrc();
+    method = entry.getMethod();
+    time = entry.getTime();
+  }
+  
+  
+  public String getName()
+  {
+    return name;
+  }
+  
+  
+  public long getSize()
+  {
+    return size;
+  }
+  
+  
+  public long getCompressedSize()
+  {
+    return compressedSize;
+  }
+  
+  
+  public long getCrc()
+  {
+    return crc;
+  }
+  
+  
+  public int getMethod()
+  {
+    return method;
+  }
+  
+  
+  public long getTime()
+  {
+    return time;
+  }
+  
+  
+  /**
+   * Return whether the entry is compressed.
+   * 
+   * @return whether the entry is deflated
+   */
+  public boolean isCompressed()
+  {
+    return (method == ZipEntry.DEFLATED);
+  }
+}
@@ -15,6 +15,7 @@ import javax.swing.border.SoftBevelBorder;
 import io.miti.codeman.managers.ListViewManager;
 import io.miti.codeman.managers.MenuBarManager;
 import io.miti.codeman.managers.TabViewManager;
+import io.miti.codeman.managers.WorkspaceManager;
 import io.miti.codeman.managers.ZipManager;
 import io.miti.codeman.util.Content;
 import io.miti.codeman.util.Utility;
@@ -186,6 +187,9 @@ public final class CodeMan
     windowState.update(frame.getBounds());
     windowState.saveToFile(PROPS_FILE_NAME);
     
+    // Close the indexes and zip files of the workspace
+    WorkspaceManager.getInstance().close();
+    
     // Close the application by disposing of the frame
     frame.dispose();
   }
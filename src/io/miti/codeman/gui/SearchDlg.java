@@ -1,31 +1,51 @@
 package io.miti.codeman.gui;
 
 import java.awt.BorderLayout;
+import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.PatternSyntaxException;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
+import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.SpringLayout;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
+import io.miti.codeman.domain.SearchOptions;
 import io.miti.codeman.domain.SearchResult;
 import io.miti.codeman.managers.ZipManager;
+import io.miti.codeman.util.FacetCounts;
+import io.miti.codeman.util.SearchPage;
 import io.miti.codeman.util.SpringUtilities;
-import io.miti.codeman.util.Utility;
-import io.miti.codeman.util.WildcardFilter;
 
 public class SearchDlg extends JDialog
 {
@@ -38,10 +58,69 @@ public class SearchDlg extends JDialog
   private JTextField tfDir   = null;
   private JTextField tfMax   = null;
   private JCheckBox  cbMax   = null;
+  private JCheckBox  cbGrep  = null;
+  private JCheckBox  cbRegex = null;
+  private JCheckBox  cbLive  = null;
+  private JLabel     lblStatus = null;
+  
+  /** The live list of results, shown while the user types. */
+  private DefaultListModel<String> listModel = null;
+  
+  /** The results in the live list. */
+  private final List<SearchResult> liveResults = new ArrayList<SearchResult>(100);
   
   /** The search results. */
   private List<SearchResult> results = null;
   
+  /** The time to wait after a keystroke before searching, in milliseconds. */
+  private static final int DEBOUNCE_MILLIS = 300;
+  
+  /** The number of results in the first page sent to the live list. */
+  private static final int FIRST_PAGE_SIZE = 100;
+  
+  /** Runs the searches off the Event Dispatch Thread. */
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(
+      new ThreadFactory()
+      {
+        @Override
+        public Thread newThread(final Runnable r)
+        {
+          Thread thread = new Thread(r, "SearchDlg");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+  
+  /**
+   * The number of the latest search.  A search whose number is no
+   * longer the latest is stale, and stops at its next page.
+   */
+  private final AtomicInteger generation = new AtomicInteger(0);
+  
+  /** The search running or waiting on the executor, if any. */
+  private Future<?> pending = null;
+  
+  /** Whether the pending search is a text search, which can be interrupted. */
+  private boolean pendingGrep = false;
+  
+  /** Starts a live search once the user stops typing. */
+  private Timer debounce = null;
+  
+  /** The facet values of the last search, with their counts. */
+  private DefaultListModel<String> facetModel = null;
+  
+  /** The field and value of each item in the facet list. */
+  private final List<String[]> facetItems = new ArrayList<String[]>(32);
+  
+  /** The facet values chosen by the user, by field. */
+  private final Map<String, String> facetFilters = new LinkedHashMap<String, String>(4);
+  
+  /** Shows the facet values chosen. */
+  private JLabel lblFacets = null;
+  
+  /** The number of values shown for each facet. */
+  private static final int MAX_FACET_VALUES = 10;
+  
   /**
    * Default constructor.
    */
@@ -87,6 +166,7 @@ public class SearchDlg extends JDialog
     JLabel lblDir = new JLabel("Directory:");
     lblDir.setDisplayedMnemonic(KeyEvent.VK_D);
     tfDir = new JTextField(20);
+    tfDir.setToolTipText("Directory name substrings; end one with / to match that directory and below");
     lblDir.setLabelFor(tfDir);
     
     JLabel lblMax = new JLabel("Max Results:");
@@ -112,6 +192,46 @@ public class SearchDlg extends JDialog
     panelMax.add(Box.createHorizontalStrut(12));
     panelMax.add(tfMax);
     
+    JLabel lblMatch = new JLabel("Match:");
+    JPanel panelMatch = new JPanel(new FlowLayout(FlowLayout.LEFT, 0, 0));
+    cbGrep = new JCheckBox("Text (grep)");
+    cbGrep.setMnemonic(KeyEvent.VK_T);
+    cbGrep.setToolTipText("Search for the literal text instead of a Lucene query");
+    cbRegex = new JCheckBox("Regex");
+    cbRegex.setMnemonic(KeyEvent.VK_R);
+    cbRegex.setEnabled(false);
+    cbGrep.addActionListener(new ActionListener()
+    {
+      @Override
+      public void actionPerformed(ActionEvent e)
+      {
+        cbRegex.setEnabled(cbGrep.isSelected());
+      }
+    });
+    lblMatch.setLabelFor(cbGrep);
+    panelMatch.add(cbGrep);
+    panelMatch.add(Box.createHorizontalStrut(12));
+    panelMatch.add(cbRegex);
+    cbLive = new JCheckBox("Search as you type");
+    cbLive.setMnemonic(KeyEvent.VK_A);
+    cbLive.addActionListener(new ActionListener()
+    {
+      @Override
+      public void actionPerformed(ActionEvent e)
+      {
+        if (cbLive.isSelected())
+        {
+          inputChanged();
+        }
+        else
+        {
+          cancelSearch();
+        }
+      }
+    });
+    panelMatch.add(Box.createHorizontalStrut(12));
+    panelMatch.add(cbLive);
+    
     midPanel.add(lblQuery);
     midPanel.add(tfQuery);
     midPanel.add(lblFile);
@@ -120,9 +240,79 @@ public class SearchDlg extends JDialog
     midPanel.add(tfDir);
     midPanel.add(lblMax);
     midPanel.add(panelMax);
+    midPanel.add(lblMatch);
+    midPanel.add(panelMatch);
     
-    SpringUtilities.makeCompactGrid(midPanel, 4, 2, 20, 10, 10, 10);
-    panel.add(midPanel, BorderLayout.CENTER);
+    SpringUtilities.makeCompactGrid(midPanel, 5, 2, 20, 10, 10, 10);
+    panel.add(midPanel, BorderLayout.NORTH);
+    
+    // The live list of results, where a double-click accepts them
+    listModel = new DefaultListModel<String>();
+    final JList<String> list = new JList<String>(listModel);
+    list.setVisibleRowCount(10);
+    list.addMouseListener(new MouseAdapter()
+    {
+      @Override
+      public void mouseClicked(final MouseEvent e)
+      {
+        if ((e.getClickCount() == 2) && !liveResults.isEmpty())
+        {
+          acceptLiveResults();
+        }
+      }
+    });
+    lblStatus = new JLabel(" ");
+    final JPanel listPanel = new JPanel(new BorderLayout(10, 5));
+    listPanel.add(new JScrollPane(list), BorderLayout.CENTER);
+    listPanel.add(lblStatus, BorderLayout.SOUTH);
+    listPanel.add(createFacetPanel(), BorderLayout.EAST);
+    panel.add(listPanel, BorderLayout.CENTER);
+    
+    // Search again when the user stops typing
+    debounce = new Timer(DEBOUNCE_MILLIS, new ActionListener()
+    {
+      @Override
+      public void actionPerformed(ActionEvent e)
+      {
+        startSearch(false);
+      }
+    });
+    debounce.setRepeats(false);
+    final DocumentListener docListener = new DocumentListener()
+    {
+      @Override
+      public void insertUpdate(final DocumentEvent e)
+      {
+        inputChanged();
+      }
+      
+      @Override
+      public void removeUpdate(final DocumentEvent e)
+      {
+        inputChanged();
+      }
+      
+      @Override
+      public void changedUpdate(final DocumentEvent e)
+      {
+        inputChanged();
+      }
+    };
+    tfQuery.getDocument().addDocumentListener(docListener);
+    tfFile.getDocument().addDocumentListener(docListener);
+    tfDir.getDocument().addDocumentListener(docListener);
+    tfMax.getDocument().addDocumentListener(docListener);
+    final ActionListener optionListener = new ActionListener()
+    {
+      @Override
+      public void actionPerformed(ActionEvent e)
+      {
+        inputChanged();
+      }
+    };
+    cbMax.addActionListener(optionListener);
+    cbGrep.addActionListener(optionListener);
+    cbRegex.addActionListener(optionListener);
     
     final JPanel southPanel = new JPanel(new GridLayout(1, 2, 20, 0));
     JButton btnSearch = new JButton("Search");
@@ -158,6 +348,105 @@ public class SearchDlg extends JDialog
   }
   
   
+  /**
+   * Create the panel that shows the facet counts of the last search.
+   * Clicking a facet value searches again with the value as a filter.
+   * 
+   * @return the facet panel
+   */
+  private JPanel createFacetPanel()
+  {
+    facetModel = new DefaultListModel<String>();
+    final JList<String> facetList = new JList<String>(facetModel);
+    facetList.setVisibleRowCount(10);
+    facetList.addMouseListener(new MouseAdapter()
+    {
+      @Override
+      public void mouseClicked(final MouseEvent e)
+      {
+        final int index = facetList.locationToIndex(e.getPoint());
+        if ((index >= 0) && (index < facetItems.size()))
+        {
+          final String[] item = facetItems.get(index);
+          facetFilters.put(item[0], item[1]);
+          facetsChanged();
+        }
+      }
+    });
+    final JScrollPane scroll = new JScrollPane(facetList);
+    scroll.setPreferredSize(new Dimension(240, 100));
+    
+    lblFacets = new JLabel(" ");
+    final JButton btnClear = new JButton("Clear Facets");
+    btnClear.addActionListener(new ActionListener()
+    {
+      @Override
+      public void actionPerformed(ActionEvent e)
+      {
+        facetFilters.clear();
+        facetsChanged();
+      }
+    });
+    
+    final JPanel south = new JPanel(new BorderLayout(0, 5));
+    south.add(lblFacets, BorderLayout.CENTER);
+    south.add(btnClear, BorderLayout.SOUTH);
+    final JPanel facetPanel = new JPanel(new BorderLayout(0, 5));
+    facetPanel.add(scroll, BorderLayout.CENTER);
+    facetPanel.add(south, BorderLayout.SOUTH);
+    return facetPanel;
+  }
+  
+  
+  /**
+   * Show the facet values chosen, and search again with them.
+   */
+  private void facetsChanged()
+  {
+    final StringBuilder sb = new StringBuilder(64);
+    for (Map.Entry<String, String> facet : facetFilters.entrySet())
+    {
+      sb.append((sb.length() == 0) ? "" : ", ").append(FacetCounts.getLabel(facet.getKey()))
+        .append('=').append(FacetCounts.getDisplayValue(facet.getValue()));
+    }
+    lblFacets.setText((sb.length() == 0) ? " " : sb.toString());
+    lblFacets.setToolTipText((sb.length() == 0) ? null : sb.toString());
+    startSearch(false);
+  }
+  
+  
+  /**
+   * Show the facet counts of a search, unless the search is stale.
+   * 
+   * @param facets the facet counts
+   * @param gen the number of the search
+   */
+  private void publishFacets(final FacetCounts facets, final int gen)
+  {
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        if (gen != generation.get())
+        {
+          return;
+        }
+        
+        for (String field : FacetCounts.FIELDS)
+        {
+          for (Map.Entry<String, Integer> entry : facets.getTop(field, MAX_FACET_VALUES))
+          {
+            facetItems.add(new String[] {field, entry.getKey()});
+            facetModel.addElement(FacetCounts.getLabel(field) + ": "
+                + FacetCounts.getDisplayValue(entry.getKey()) + " (" + entry.getValue() + ")");
+          }
+        }
+      }
+    });
+  }
+  
+  
   /**
    * The one instance of the dialog box.
    * 
@@ -207,18 +496,84 @@ public class SearchDlg extends JDialog
    */
   private void skipSearch()
   {
-    // Hide the dialog box
+    // Stop any search, and hide the dialog box
+    cancelSearch();
+    clearResults();
     setVisible(false);
   }
   
   
   /**
-   * Perform the search.
+   * Perform the search, and hide the dialog box when it finds results.
    */
   private void performSearch()
   {
     // Clear past results (if any)
     clearResults();
+    startSearch(true);
+  }
+  
+  
+  /**
+   * Called when the query or an option changes.  In live mode, this
+   * restarts the timer for searching when the user stops typing.
+   */
+  private void inputChanged()
+  {
+    if ((cbLive != null) && cbLive.isSelected() && (debounce != null))
+    {
+      debounce.restart();
+    }
+  }
+  
+  
+  /**
+   * Use the results in the live list as the search results, and hide
+   * the dialog box.
+   */
+  private void acceptLiveResults()
+  {
+    cancelSearch();
+    results = new ArrayList<SearchResult>(liveResults);
+    setVisible(false);
+  }
+  
+  
+  /**
+   * Cancel the search that is running or waiting, if any.  A running
+   * index search is not interrupted, since an interrupt can close the
+   * files of the index; it stops at its next page instead.  A running
+   * text search is interrupted, and stops checking its candidates.
+   */
+  private void cancelSearch()
+  {
+    generation.incrementAndGet();
+    if (debounce != null)
+    {
+      debounce.stop();
+    }
+    
+    if (pending != null)
+    {
+      pending.cancel(pendingGrep);
+      pending = null;
+    }
+  }
+  
+  
+  /**
+   * Start a search on the executor, replacing any earlier search.  The
+   * results are added to the live list as each page is found.
+   * 
+   * @param hideWhenDone whether to hide the dialog box if there are results
+   */
+  private void startSearch(final boolean hideWhenDone)
+  {
+    cancelSearch();
+    listModel.clear();
+    liveResults.clear();
+    facetModel.clear();
+    facetItems.clear();
     
     // Get the fields from the UI
     String query = tfQuery.getText();
@@ -229,120 +584,178 @@ public class SearchDlg extends JDialog
     
     if ((query == null) || (query.trim().length() == 0))
     {
+      lblStatus.setText(" ");
       return;
     }
     
-    // Call Lucene for the query
-    results = ZipManager.getInstance().search(query);
-    if ((results == null) || (results.isEmpty()))
-    {
-      return;
-    }
+    // The file and directory names are filtered by the index, and
+    // only the maximum number of results is collected
+    SearchOptions options = new SearchOptions(query);
+    options.setFilePatterns(parseBySpace(files));
+    options.setDirPatterns(parseBySpace(dirs));
+    options.setMaxResults(maxResults);
+    options.setFacetFilters(new LinkedHashMap<String, String>(facetFilters));
+    options.setCountFacets(true);
     
-    // Parse files into an array, and remove any files whose name doesn't
-    // match the wildcard filter
-    List<String> fileNames = parseBySpace(files);
-    parseByFileName(fileNames);
-    
-    // Parse dirs into an array (space-delimited), and remove any files
-    // who dir doesn't contain one of the strings
-    List<String> dirNames = parseBySpace(dirs);
-    parseByDirName(dirNames);
-    
-    // If useMax, then remove any results after #maxResults
-    if (useMax && (results.size() > maxResults))
+    lblStatus.setText("Searching...");
+    pendingGrep = cbGrep.isSelected();
+    pending = executor.submit(new SearchTask(options, cbGrep.isSelected(),
+        cbRegex.isSelected(), generation.get(), hideWhenDone));
+  }
+  
+  
+  /**
+   * Add a page of results to the live list, unless the search is stale.
+   * 
+   * @param page the results
+   * @param gen the number of the search
+   */
+  private void publish(final List<SearchResult> page, final int gen)
+  {
+    SwingUtilities.invokeLater(new Runnable()
     {
-      int last = results.size() - 1;
-      while (last >= maxResults)
+      @Override
+      public void run()
       {
-        results.remove(last--);
+        if (gen == generation.get())
+        {
+          for (SearchResult sr : page)
+          {
+            liveResults.add(sr);
+            listModel.addElement(sr.getDoc());
+          }
+          lblStatus.setText("Searching... " + liveResults.size() + " results");
+        }
       }
-    }
-    
-    // Hide the dialog box
-    setVisible(false);
+    });
   }
   
   
   /**
-   * Parse the results by DIR name.  There's an implicit OR for the
-   * directory names to match the search results (the result just
-   * has to match one of the search strings for the dir name).
+   * Finish a search, unless it is stale.
    * 
-   * @param dirNames the array of directory name substrings
+   * @param error the error message, or null if the search succeeded
+   * @param truncated whether the search reached its time limit
+   * @param gen the number of the search
+   * @param hideWhenDone whether to hide the dialog box if there are results
    */
-  private void parseByDirName(final List<String> dirNames)
+  private void finish(final String error, final boolean truncated,
+                      final int gen, final boolean hideWhenDone)
   {
-    if ((dirNames != null) && (dirNames.size() > 0))
+    SwingUtilities.invokeLater(new Runnable()
     {
-      // Iterate through all of the search results
-      final int numResults = results.size();
-      for (int i = numResults - 1; i >= 0; --i)
+      @Override
+      public void run()
       {
-        final SearchResult sr = results.get(i);
-        final String name = Utility.getDirNameFromZipEntry(sr.getDoc());
+        if (gen != generation.get())
+        {
+          return;
+        }
         
-        // Iterate through all of the file name values, and see if the
-        // search result matches one of them
-        // final int nameSize = fileNames.size() - 1;
-        boolean keepResult = false;
-        for (String dname : dirNames)
+        pending = null;
+        if (error != null)
         {
-          if (name.contains(dname))
+          lblStatus.setText(error);
+          if (hideWhenDone)
           {
-            keepResult = true;
-            break;
+            JOptionPane.showMessageDialog(SearchDlg.this, error,
+                "Error", JOptionPane.ERROR_MESSAGE);
           }
         }
-        
-        if (!keepResult)
+        else if (liveResults.isEmpty())
+        {
+          lblStatus.setText("No results");
+        }
+        else
         {
-          results.remove(i);
+          lblStatus.setText(liveResults.size() + " results"
+              + (truncated ? " (partial; the search reached its time limit)" : ""));
+          if (hideWhenDone)
+          {
+            acceptLiveResults();
+          }
         }
       }
-    }
+    });
   }
   
   
   /**
-   * Parse the results by FILE name.  There's an implicit OR for the
-   * file names to match the search results (the result just
-   * has to match one of the search strings for the file name).
-   * 
-   * @param fileNames the array of file name substrings
+   * A search run on the executor.  A Lucene search is fetched in pages
+   * of growing size, so the first results show quickly and a stale
+   * search stops early.  A text search is sent as one page.
    */
-  private void parseByFileName(final List<String> fileNames)
+  private final class SearchTask implements Runnable
   {
-    if ((fileNames != null) && (fileNames.size() > 0))
+    /** The search options. */
+    private final SearchOptions options;
+    
+    /** Whether to search the text instead of the index. */
+    private final boolean grep;
+    
+    /** Whether the text is a regular expression. */
+    private final boolean regex;
+    
+    /** The number of this search. */
+    private final int gen;
+    
+    /** Whether to hide the dialog box if there are results. */
+    private final boolean hideWhenDone;
+    
+    /**
+     * Constructor.
+     * 
+     * @param pOptions the search options
+     * @param bGrep whether to search the text instead of the index
+     * @param bRegex whether the text is a regular expression
+     * @param nGen the number of this search
+     * @param bHide whether to hide the dialog box if there are results
+     */
+    public SearchTask(final SearchOptions pOptions, final boolean bGrep,
+                      final boolean bRegex, final int nGen, final boolean bHide)
+    {
+      options = pOptions;
+      grep = bGrep;
+      regex = bRegex;
+      gen = nGen;
+      hideWhenDone = bHide;
+    }
+    
+    
+    @Override
+    public void run()
     {
-      // Iterate through all of the search results
-      final int numResults = results.size();
-      for (int i = numResults - 1; i >= 0; --i)
+      String error = null;
+      boolean truncated = false;
+      try
       {
-        final SearchResult sr = results.get(i);
-        final String name = Utility.getFileNameFromZipEntry(sr.getDoc());
-        
-        // Iterate through all of the file name values, and see if the
-        // search result matches one of them
-        // final int nameSize = fileNames.size() - 1;
-        boolean keepResult = false;
-        for (String fname : fileNames)
+        if (grep)
         {
-          WildcardFilter filter = new WildcardFilter(fname, true);
-          
-          // Check if the filename matches the wildcard
-          if (filter.accept(name))
-          {
-            keepResult = true;
-            break;
-          }
+          publish(ZipManager.getInstance().grep(options, regex), gen);
         }
-        
-        if (!keepResult)
+        else
         {
-          results.remove(i);
+          SearchPage page = null;
+          int pageSize = FIRST_PAGE_SIZE;
+          do
+          {
+            page = ZipManager.getInstance().searchPage(options, page, pageSize);
+            if (page.getFacets() != null)
+            {
+              publishFacets(page.getFacets(), gen);
+            }
+            publish(page.getResults(), gen);
+            truncated = page.isTruncated();
+            pageSize *= 2;
+          } while (page.hasMore() && !truncated && (gen == generation.get()));
         }
       }
+      catch (PatternSyntaxException e)
+      {
+        error = "Invalid regular expression: " + e.getDescription();
+      }
+      
+      finish(error, truncated, gen, hideWhenDone);
     }
   }
   
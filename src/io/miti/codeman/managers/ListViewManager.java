@@ -7,6 +7,7 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
@@ -36,6 +37,9 @@ public final class ListViewManager
   /** The button to clear the search filter. */
   private JButton btnClear = null;
   
+  /** Whether the filter is a fuzzy pattern, with the best matches first. */
+  private JCheckBox cbFuzzy = null;
+  
   static
   {
     inst = new ListViewManager();
@@ -100,6 +104,19 @@ public final class ListViewManager
       }
     });
     topPanel.add(btnClear, BorderLayout.EAST);
+    cbFuzzy = new JCheckBox("Fuzzy");
+    cbFuzzy.setToolTipText("Match the filter as a fuzzy pattern, with the best matches first");
+    cbFuzzy.addActionListener(new ActionListener()
+    {
+      @Override
+      public void actionPerformed(final ActionEvent arg)
+      {
+        ((FileListModel) listFiles.getModel()).setFuzzy(cbFuzzy.isSelected(),
+            tfSearch.getText());
+        tfSearch.requestFocusInWindow();
+      }
+    });
+    topPanel.add(cbFuzzy, BorderLayout.WEST);
     
     // Build the panel in the middle of the view (for listing files)
     listFiles = new JList<String>();
@@ -117,12 +134,8 @@ public final class ListViewManager
   
   private void keyChanged(final String query)
   {
-    // Execute the search
-    if (((FileListModel) listFiles.getModel()).setSubsetKey(query, false))
-    {
-      // Redraw the list since the data changed
-      ((FileListModel) listFiles.getModel()).contentChanged();
-    }
+    // Start the search; the list is redrawn when the filter finishes
+    ((FileListModel) listFiles.getModel()).setSubsetKey(query, false);
   }
   
   
@@ -133,13 +146,16 @@ public final class ListViewManager
     {
       btnClear.setEnabled(true);
       tfSearch.setEnabled(true);
-      ((FileListModel) listFiles.getModel()).setSubsetKey("", true);
+      cbFuzzy.setEnabled(true);
+      // Filter the new file list by the text and mode shown
+      ((FileListModel) listFiles.getModel()).setSubsetKey(tfSearch.getText(), true);
       ((FileListModel) listFiles.getModel()).contentChanged();
     }
     else
     {
       btnClear.setEnabled(false);
       tfSearch.setEnabled(false);
+      cbFuzzy.setEnabled(false);
       tfSearch.setText("");
       TabViewManager.getInstance().closeAllTabs();
       ((FileListModel) listFiles.getModel()).clearList();
@@ -4,6 +4,7 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
@@ -21,9 +22,11 @@ import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.JToolBar;
 import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
 
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
 import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
+import org.fife.ui.rtextarea.RTextArea;
 import org.fife.ui.rtextarea.RTextScrollPane;
 import org.fife.ui.rtextarea.SearchContext;
 import org.fife.ui.rtextarea.SearchEngine;
@@ -32,6 +35,7 @@ import io.miti.codeman.actions.TabHeaderPopupMenu;
 import io.miti.codeman.console.CmdLineInterpreter;
 import io.miti.codeman.console.JConsole;
 import io.miti.codeman.gui.CodeMan;
+import io.miti.codeman.util.Logger;
 import io.miti.codeman.util.StyleTyper;
 import io.miti.codeman.util.Utility;
 
@@ -128,6 +132,20 @@ public final class TabViewManager
   
   
   public void addFileFromZip(final String filename, final String text)
+  {
+    addFileFromZip(filename, text, 0);
+  }
+  
+  
+  /**
+   * Open a file from the zip in a tab, or select its tab if it is
+   * already open, and move the caret to a line.
+   * 
+   * @param filename the name of the file
+   * @param text the text of the file
+   * @param line the line to show, starting at 1, or zero for the top
+   */
+  public void addFileFromZip(final String filename, final String text, final int line)
   {
     // Search if the file is already open
     final String tabName = "FZ:" + filename;
@@ -143,6 +161,10 @@ public final class TabViewManager
         {
           isOpen = true;
           tp.setSelectedIndex(i);
+          if ((line > 0) && (tab instanceof JPanel))
+          {
+            goToLine((JPanel) tab, line);
+          }
           break;
         }
       }
@@ -210,12 +232,71 @@ public final class TabViewManager
       final String title = Utility.getFileNameFromZipEntry(filename);
       tp.addTab(title, null, appPanel, filename);
       tp.setSelectedIndex(tp.getTabCount() - 1);
+      if (line > 0)
+      {
+        goToLine(textArea, line);
+      }
       
       checkHeader();
     }
   }
   
   
+  /**
+   * Move the caret of the text area in a file tab to a line.
+   * 
+   * @param panel the panel of the tab
+   * @param line the line number, starting at 1
+   */
+  private void goToLine(final JPanel panel, final int line)
+  {
+    for (Component comp : panel.getComponents())
+    {
+      if (comp instanceof RTextScrollPane)
+      {
+        goToLine(((RTextScrollPane) comp).getTextArea(), line);
+        break;
+      }
+    }
+  }
+  
+  
+  /**
+   * Move the caret of a text area to the start of a line, and scroll
+   * the line into the middle of the view.
+   * 
+   * @param textArea the text area
+   * @param line the line number, starting at 1
+   */
+  private void goToLine(final RTextArea textArea, final int line)
+  {
+    try
+    {
+      final int index = Math.min(line, textArea.getLineCount()) - 1;
+      textArea.setCaretPosition(textArea.getLineStartOffset(index));
+      SwingUtilities.invokeLater(new Runnable()
+      {
+        @Override
+        public void run()
+        {
+          // Center the line once the tab has been laid out.  The lines
+          // do not wrap, so they all have the same height.
+          final int lineHeight = textArea.getLineHeight();
+          final int y = textArea.getInsets().top + (index * lineHeight);
+          final Rectangle view = textArea.getVisibleRect();
+          textArea.scrollRectToVisible(new Rectangle(0,
+              Math.max(0, y - ((view.height - lineHeight) / 2)), 1, view.height));
+        }
+      });
+      textArea.requestFocusInWindow();
+    }
+    catch (BadLocationException e)
+    {
+      Logger.error(e);
+    }
+  }
+  
+  
   public void addTab(final String title, final JPanel panel)
   {
     tp.addTab(title, panel);
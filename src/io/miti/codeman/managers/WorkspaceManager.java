@@ -0,0 +1,523 @@
+package io.miti.codeman.managers;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipFile;
+
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TimeLimitingCollector.TimeExceededException;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+
+import io.miti.codeman.domain.SearchResult;
+import io.miti.codeman.util.ArchiveReader;
+import io.miti.codeman.util.IndexHandle;
+import io.miti.codeman.util.IndexSettings;
+import io.miti.codeman.util.Logger;
+import io.miti.codeman.util.SearchPage;
+import io.miti.codeman.util.SlowQueryLog;
+import io.miti.codeman.util.TextDecoder;
+import io.miti.codeman.util.Utility;
+import io.miti.codeman.util.WindowState;
+import io.miti.codeman.util.ZipIndexer;
+
+/**
+ * The manager for the workspace, which is a set of installed
+ * directories that can be searched together.  Each directory keeps
+ * its own index, and a search runs against all of them in parallel
+ * before the hits are merged by score.
+ */
+public final class WorkspaceManager
+{
+  /** The one instance of this class. */
+  private static final WorkspaceManager inst;
+  
+  /** The installed directories in the workspace. */
+  private final List<Member> members = new ArrayList<Member>(10);
+  
+  /** Parses the queries. */
+  private final ZipIndexer queryIndexer = new ZipIndexer();
+  
+  static
+  {
+    inst = new WorkspaceManager();
+  }
+  
+  
+  /**
+   * Default constructor.  This loads the saved workspace directories.
+   */
+  private WorkspaceManager()
+  {
+    for (String dirName : WindowState.getInstance().getWorkspaceDirs())
+    {
+      members.add(new Member(new File(dirName)));
+    }
+  }
+  
+  
+  /**
+   * Return the one instance of this class.
+   * 
+   * @return the one instance of this class
+   */
+  public static WorkspaceManager getInstance()
+  {
+    return inst;
+  }
+  
+  
+  /**
+   * Add an installed directory to the workspace.
+   * 
+   * @param dirName the name of the directory
+   * @return an error message, or null if the directory was added
+   */
+  public synchronized String add(final String dirName)
+  {
+    if (!ZipManager.checkForIndex(dirName))
+    {
+      return "Not a valid indexed directory: " + dirName;
+    }
+    
+    final File dir = new File(dirName).getAbsoluteFile();
+    if (find(dir) != null)
+    {
+      return "The directory is already in the workspace: " + dir.getPath();
+    }
+    
+    members.add(new Member(dir));
+    saveDirectories();
+    return null;
+  }
+  
+  
+  /**
+   * Remove an installed directory from the workspace.
+   * 
+   * @param dirName the name of the directory
+   * @return whether the directory was in the workspace
+   */
+  public synchronized boolean remove(final String dirName)
+  {
+    final Member member = find(new File(dirName).getAbsoluteFile());
+    if (member == null)
+    {
+      return false;
+    }
+    
+    member.close();
+    members.remove(member);
+    saveDirectories();
+    return true;
+  }
+  
+  
+  /**
+   * Return the installed directories in the workspace.
+   * 
+   * @return the list of directories
+   */
+  public synchronized List<File> getDirectories()
+  {
+    List<File> dirs = new ArrayList<File>(members.size());
+    for (Member member : members)
+    {
+      dirs.add(member.dir);
+    }
+    
+    return dirs;
+  }
+  
+  
+  /**
+   * Return the name of the zip file indexed in a workspace directory.
+   * 
+   * @param dir the installed directory
+   * @return the name of the zip file, or null if it is not known
+   */
+  public synchronized String getZipName(final File dir)
+  {
+    final Member member = find(dir);
+    return ((member == null) ? null : member.zipName);
+  }
+  
+  
+  /**
+   * Fetch one page of the results of a search of every directory in
+   * the workspace.  The directories are searched in parallel, each
+   * collecting its best hits up to the end of the page, and the hits
+   * are merged by score.  Only the hits on the page are looked up.
+   * No more than the configured maximum number of hits is collected,
+   * and each search keeps the hits it found if the time limit runs out.
+   * 
+   * @param term the query string
+   * @param previous the previous page, or null for the first page
+   * @param pageSize the maximum number of results on the page
+   * @return the page of results, each naming its zip file
+   * @throws ParseException if the query string is invalid
+   */
+  public SearchPage searchPage(final String term, final SearchPage previous,
+                               final int pageSize) throws ParseException
+  {
+    final int start = (previous == null) ? 0 : previous.getEnd();
+    final int maxHits = WindowState.getInstance().getWorkspaceMaxHits();
+    final int end = Math.min(start + pageSize, maxHits);
+    if ((end <= start) || ((previous != null) && !previous.hasMore()))
+    {
+      return SearchPage.empty(start);
+    }
+    
+    final long startTime = System.nanoTime();
+    final Query query = queryIndexer.parseQuery(term);
+    final List<Member> searched = new ArrayList<Member>(10);
+    synchronized (this)
+    {
+      for (Member member : members)
+      {
+        if (member.getIndexHandle() != null)
+        {
+          searched.add(member);
+        }
+      }
+    }
+    
+    if (searched.isEmpty())
+    {
+      return SearchPage.empty(start);
+    }
+    
+    // Acquire a searcher for each index, so the merged hits stay valid
+    final IndexSearcher[] searchers = new IndexSearcher[searched.size()];
+    for (int i = 0; i < searchers.length; ++i)
+    {
+      searchers[i] = searched.get(i).getIndexHandle().acquire();
+    }
+    
+    SearchPage page = SearchPage.empty(start);
+    final AtomicBoolean truncated = new AtomicBoolean(false);
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(searchers.length,
+        Runtime.getRuntime().availableProcessors()));
+    try
+    {
+      // Search each index in parallel for its best hits up to the end of the page
+      List<Callable<TopDocs>> tasks = new ArrayList<Callable<TopDocs>>(searchers.length);
+      for (final IndexSearcher searcher : searchers)
+      {
+        tasks.add(new Callable<TopDocs>()
+        {
+          @Override
+          public TopDocs call() throws IOException
+          {
+            final TopScoreDocCollector collector = TopScoreDocCollector.create(
+                Math.min(end, Math.max(1, searcher.getIndexReader().maxDoc())), false);
+            try
+            {
+              searcher.search(query, ZipIndexer.limitTime(collector));
+            }
+            catch (TimeExceededException e)
+            {
+              truncated.set(true);
+            }
+            return collector.topDocs();
+          }
+        });
+      }
+      
+      final TopDocs[] shardHits = new TopDocs[searchers.length];
+      int totalHits = 0;
+      final List<Future<TopDocs>> futures = pool.invokeAll(tasks);
+      for (int i = 0; i < shardHits.length; ++i)
+      {
+        shardHits[i] = futures.get(i).get();
+        totalHits += shardHits[i].totalHits;
+      }
+      
+      // Merge the hits by score, and look up the file names on the page
+      final TopDocs merged = TopDocs.merge(null, end, shardHits);
+      List<SearchResult> results = new ArrayList<SearchResult>(pageSize);
+      for (int i = start; i < merged.scoreDocs.length; ++i)
+      {
+        final ScoreDoc hit = merged.scoreDocs[i];
+        final String title = searchers[hit.shardIndex].doc(hit.doc,
+            ZipIndexer.TITLE_FIELD).get(ZipIndexer.FIELD_TITLE);
+        final Member member = searched.get(hit.shardIndex);
+        results.add(new SearchResult(title, hit.score, member.getSourceName(), member.dir));
+      }
+      
+      final ScoreDoc last = results.isEmpty() ? null
+          : merged.scoreDocs[merged.scoreDocs.length - 1];
+      page = new SearchPage(results, start, Math.min(totalHits, maxHits), last,
+                            truncated.get());
+    }
+    catch (InterruptedException e)
+    {
+      Logger.error(e);
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e)
+    {
+      Logger.error("Error searching the workspace: " + e.getCause());
+    }
+    catch (IOException e)
+    {
+      Logger.error(e);
+    }
+    finally
+    {
+      pool.shutdown();
+      for (int i = 0; i < searchers.length; ++i)
+      {
+        searched.get(i).getIndexHandle().release(searchers[i]);
+      }
+    }
+    
+    SlowQueryLog.getInstance().record(query, page.getTotalHits(),
+        (System.nanoTime() - startTime) / 1000000L, truncated.get());
+    
+    return page;
+  }
+  
+  
+  /**
+   * Get the text of a file in a workspace directory.  The zip file
+   * that is currently open is read through the ZipManager.
+   * 
+   * @param dir the installed directory
+   * @param name the name of the file
+   * @return the text of the file, or null if it was not found
+   */
+  public String getFileText(final File dir, final String name)
+  {
+    final File openDir = ZipManager.getInstance().getOutputDirectory();
+    if ((openDir != null) && openDir.getAbsoluteFile().equals(dir))
+    {
+      return ZipManager.getInstance().getFileText(name);
+    }
+    
+    final Member member;
+    synchronized (this)
+    {
+      member = find(dir);
+    }
+    
+    return ((member == null) ? null : member.getFileText(name));
+  }
+  
+  
+  /**
+   * Refresh the searchers, to pick up indexes that were updated.  The
+   * zip files are reopened on their next read, in case they changed.
+   */
+  public synchronized void refresh()
+  {
+    for (Member member : members)
+    {
+      member.refresh();
+    }
+  }
+  
+  
+  /**
+   * Close the indexes and zip files of the workspace.
+   */
+  public synchronized void close()
+  {
+    for (Member member : members)
+    {
+      member.close();
+    }
+  }
+  
+  
+  /**
+   * Find a directory in the workspace.
+   * 
+   * @param dir the directory
+   * @return the workspace member, or null if it is not in the workspace
+   */
+  private Member find(final File dir)
+  {
+    for (Member member : members)
+    {
+      if (member.dir.equals(dir))
+      {
+        return member;
+      }
+    }
+    
+    return null;
+  }
+  
+  
+  /**
+   * Save the list of workspace directories in the window state.
+   */
+  private void saveDirectories()
+  {
+    List<String> dirs = new ArrayList<String>(members.size());
+    for (Member member : members)
+    {
+      dirs.add(member.dir.getPath());
+    }
+    
+    WindowState.getInstance().setWorkspaceDirs(dirs);
+  }
+  
+  
+  /**
+   * One installed directory in the workspace.  The index and the zip
+   * file are opened on first use.
+   */
+  private static final class Member
+  {
+    /** The installed directory. */
+    private final File dir;
+    
+    /** The name of the zip file indexed in the directory. */
+    private final String zipName;
+    
+    /** The index settings of the directory. */
+    private final IndexSettings settings;
+    
+    /** The shared searcher on the index. */
+    private IndexHandle indexHandle = null;
+    
+    /** The zip file, for reading the text of results. */
+    private ZipFile zipHandle = null;
+    
+    /**
+     * Constructor.
+     * 
+     * @param pDir the installed directory
+     */
+    public Member(final File pDir)
+    {
+      dir = pDir.getAbsoluteFile();
+      Properties props = Utility.getProperties(
+          new File(dir, ZipManager.DIR_PROPS_NAME).getAbsolutePath());
+      zipName = ((props == null) ? null : props.getProperty("zip.name"));
+      settings = IndexSettings.load(props);
+    }
+    
+    
+    /**
+     * Return the name shown for results from this directory.
+     * 
+     * @return the name of the zip file, or the directory if it is not known
+     */
+    public String getSourceName()
+    {
+      return ((zipName == null) ? dir.getName() : new File(zipName).getName());
+    }
+    
+    
+    /**
+     * Get the shared searcher on the index, opening it if needed.
+     * 
+     * @return the index handle, or null if there is no index
+     */
+    public synchronized IndexHandle getIndexHandle()
+    {
+      if (indexHandle == null)
+      {
+        indexHandle = IndexHandle.open(new File(dir, ZipManager.INDEX_DIR), settings);
+      }
+      
+      return indexHandle;
+    }
+    
+    
+    /**
+     * Get the text of a file in the zip.
+     * 
+     * @param name the name of the file
+     * @return the text, or null if the file was not found
+     */
+    public synchronized String getFileText(final String name)
+    {
+      if (zipName == null)
+      {
+        return null;
+      }
+      
+      try
+      {
+        if (zipHandle == null)
+        {
+          zipHandle = new ZipFile(zipName);
+        }
+        
+        final byte[] data = ArchiveReader.readEntry(zipHandle, name);
+        return ((data == null) ? null : TextDecoder.decode(data, settings.getCharset()));
+      }
+      catch (IOException e)
+      {
+        Logger.error(e);
+      }
+      
+      return null;
+    }
+    
+    
+    /**
+     * Reopen the searcher if the index changed, and close the zip file.
+     */
+    public synchronized void refresh()
+    {
+      if (indexHandle != null)
+      {
+        indexHandle.refresh();
+      }
+      
+      closeZip();
+    }
+    
+    
+    /**
+     * Close the index and the zip file.
+     */
+    public synchronized void close()
+    {
+      if (indexHandle != null)
+      {
+        indexHandle.close();
+        indexHandle = null;
+      }
+      
+      closeZip();
+    }
+    
+    
+    /**
+     * Close the zip file.
+     */
+    private void closeZip()
+    {
+      if (zipHandle != null)
+      {
+        try
+        {
+          zipHandle.close();
+        }
+        catch (IOException e)
+        {
+          Logger.error(e);
+        }
+        zipHandle = null;
+      }
+    }
+  }
+}
@@ -2,14 +2,22 @@ package io.miti.codeman.managers;
 
 import java.awt.Cursor;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
@@ -18,9 +26,27 @@ import java.util.zip.ZipInputStream;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.Query;
+
+import io.miti.codeman.domain.SearchOptions;
 import io.miti.codeman.domain.SearchResult;
+import io.miti.codeman.domain.ZipEntryInfo;
 import io.miti.codeman.gui.CodeMan;
+import io.miti.codeman.util.ArchiveReader;
+import io.miti.codeman.util.ContentCache;
+import io.miti.codeman.util.FuzzyFinder;
+import io.miti.codeman.util.GrepSearcher;
+import io.miti.codeman.util.IResultHandler;
+import io.miti.codeman.util.IndexHandle;
+import io.miti.codeman.util.IndexSettings;
+import io.miti.codeman.util.IndexSizes;
 import io.miti.codeman.util.Logger;
+import io.miti.codeman.util.NameTable;
+import io.miti.codeman.util.SearchPage;
+import io.miti.codeman.util.SnippetBuilder;
+import io.miti.codeman.util.TextDecoder;
 import io.miti.codeman.util.Utility;
 import io.miti.codeman.util.WindowState;
 import io.miti.codeman.util.ZipIndexer;
@@ -31,10 +57,10 @@ public final class ZipManager
   private static final ZipManager inst;
   
   /** The output directory for the indexed data (Lucene). */
-  private static final String INDEX_DIR = "indexes";
+  static final String INDEX_DIR = "indexes";
   
   /** The name of the properties file stored in each opened directory. */
-  private static final String DIR_PROPS_NAME = "codezip.txt";
+  static final String DIR_PROPS_NAME = "codezip.txt";
   
   /** The filename. */
   private String zipfile = null;
@@ -45,9 +71,41 @@ public final class ZipManager
   /** The index directory. */
   private File indexDir = null;
   
-  /** The list of files in the zip. */
+  /**
+   * The list of files in the zip.  A list is not changed once it is
+   * saved here, so a background filter can keep using it while a new
+   * list replaces it.
+   */
   private List<String> files = null;
   
+  /** The lowercase names of the files, in the same order, for filtering. */
+  private NameTable nameTable = null;
+  
+  /** The central directory metadata for the files in the zip, by name. */
+  private Map<String, ZipEntryInfo> entryInfo = null;
+  
+  /** The throughput of the last indexing run. */
+  private String indexThroughput = null;
+  
+  /** The index settings for the installed directory. */
+  private IndexSettings indexSettings = new IndexSettings();
+  
+  /** The shared searcher for the index directory, opened on first use. */
+  private IndexHandle indexHandle = null;
+  
+  /** Runs queries against the index. */
+  private final ZipIndexer queryIndexer = new ZipIndexer();
+  
+  /** The shared handle on the zip file, opened on first use. */
+  private ZipFile zipHandle = null;
+  
+  /** The modification time of the zip file when the handle was opened. */
+  private long zipHandleTime = 0L;
+  
+  /** The cache of decoded file text. */
+  private final ContentCache contentCache =
+      new ContentCache(WindowState.getInstance().getContentCacheBytes());
+  
   static
   {
     inst = new ZipManager();
@@ -110,8 +168,12 @@ public final class ZipManager
     }
     
     // Set the member variables
+    closeIndexHandle();
+    closeZipHandle();
+    resetContentCache();
     outDir = new File(dirName);
     zipfile = getZipFileName();
+    indexSettings = loadIndexSettings();
     indexDir = new File(outDir, INDEX_DIR);
     saveListOfFiles();
     
@@ -162,7 +224,7 @@ public final class ZipManager
   }
   
   
-  private boolean checkForIndex(final String dirName)
+  static boolean checkForIndex(final String dirName)
   {
     final File dir = new File(dirName);
     if (!dir.exists() || !dir.isDirectory())
@@ -206,7 +268,11 @@ public final class ZipManager
     }
     
     // Save the name
+    closeIndexHandle();
+    closeZipHandle();
+    resetContentCache();
     zipfile = filename;
+    indexSettings = new IndexSettings();
     Logger.debug("Initializing zip file " + zipfile);
     
     // Create the directory
@@ -229,14 +295,15 @@ public final class ZipManager
   
   public void closeZip()
   {
+    closeIndexHandle();
+    closeZipHandle();
+    contentCache.clear();
     zipfile = null;
     outDir = null;
     indexDir = null;
-    if (files != null)
-    {
-      files.clear();
-      files = null;
-    }
+    files = null;
+    nameTable = null;
+    entryInfo = null;
     
     // Update the view since a file was closed
     ListViewManager.getInstance().updateView();
@@ -249,6 +316,11 @@ public final class ZipManager
   }
   
   
+  /**
+   * Save the names and metadata of the files in the zip.  These are
+   * read from the zip's central directory, so no entry is inflated,
+   * unless the files in nested archives are listed too.
+   */
   private void saveListOfFiles()
   {
     // Load data into files
@@ -259,36 +331,115 @@ public final class ZipManager
       return;
     }
     
-    // Allocate the list to save the array to
-    files = new ArrayList<String>(20);
-    
     // Iterate over the contents of the zip file
+    files = null;
+    nameTable = null;
+    try
+    {
+      ZipFile zip = new ZipFile(file);
+      final int count = zip.size();
+      final List<String> list = new ArrayList<String>(count);
+      try
+      {
+        // Listing the files in nested archives means inflating each one
+        final boolean listNested = indexSettings.isNested()
+            && WindowState.getInstance().isListNested();
+        
+        // The list is only saved once it is complete
+        entryInfo = new HashMap<String, ZipEntryInfo>(Math.max(16, (count * 4) / 3 + 1));
+        
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements())
+        {
+          // If it's a directory, skip it
+          final ZipEntry entry = entries.nextElement();
+          if (entry.isDirectory())
+          {
+            continue;
+          }
+          
+          // Save the name and the metadata
+          final String name = entry.getName();
+          list.add(name);
+          entryInfo.put(name, new ZipEntryInfo(entry));
+          
+          // Add the entries of a nested archive
+          if (listNested && ArchiveReader.isArchive(name))
+          {
+            InputStream is = zip.getInputStream(entry);
+            try
+            {
+              saveNestedFiles(is, name, 1, list);
+            }
+            finally
+            {
+              is.close();
+            }
+          }
+        }
+      }
+      finally
+      {
+        zip.close();
+      }
+      
+      // Lowercase the names once, for filtering the file list
+      files = list;
+      nameTable = new NameTable(list);
+    }
+    catch (ZipException e)
+    {
+      e.printStackTrace();
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
+    }
+  }
+  
+  
+  /**
+   * Save the names of the files in a nested archive.  The archive is
+   * read as a stream, and the names are saved as composite paths.
+   * 
+   * @param is the stream of the archive's bytes
+   * @param archive the path of the archive
+   * @param depth the nesting depth of the archive
+   * @param list the list to add the names to
+   * @throws IOException if the archive cannot be read
+   */
+  private void saveNestedFiles(final InputStream is, final String archive, final int depth,
+                               final List<String> list)
+    throws IOException
+  {
+    final ZipInputStream zis = ArchiveReader.openNested(is);
     try
     {
-      ZipInputStream zis = new ZipInputStream(new FileInputStream(file));
       ZipEntry entry = null;
       while ((entry = zis.getNextEntry()) != null)
       {
-        // If it's a directory, skip it
         if (entry.isDirectory())
         {
           continue;
         }
         
-        // Get the contents of the file
-        final String name = entry.getName();
-        files.add(name);
+        final String path = ArchiveReader.join(archive, entry.getName());
+        list.add(path);
+        entryInfo.put(path, new ZipEntryInfo(path, entry));
+        
+        if (ArchiveReader.isArchive(path) && (depth < ArchiveReader.MAX_DEPTH))
+        {
+          saveNestedFiles(zis, path, depth + 1, list);
+        }
       }
-      
-      zis.close();
     }
     catch (ZipException e)
     {
-      e.printStackTrace();
+      Logger.error("Unable to read nested archive " + archive + ": " + e.getMessage());
     }
-    catch (IOException e)
+    finally
     {
-      e.printStackTrace();
+      zis.close();
     }
   }
   
@@ -311,7 +462,7 @@ public final class ZipManager
     
     // Let the user know the indexing is complete
     JOptionPane.showMessageDialog(frame,
-        "The file has been indexed to " + outDir.getName(),
+        "The file has been indexed to " + outDir.getName() + "\n" + indexThroughput,
         "Indexing Complete", JOptionPane.INFORMATION_MESSAGE);
     
     // Put the zip name in the frame title
@@ -338,6 +489,7 @@ public final class ZipManager
     // Save the zip file name to a file in outDir
     Properties prop = new Properties();
     prop.put("zip.name", zipname);
+    indexSettings.save(prop);
     
     // Create the output file name
     File file = new File(outDir, DIR_PROPS_NAME);
@@ -367,6 +519,19 @@ public final class ZipManager
   }
   
   
+  /**
+   * Get the index settings from the properties file in the directory.
+   * 
+   * @return the index settings
+   */
+  private IndexSettings loadIndexSettings()
+  {
+    File file = new File(outDir, DIR_PROPS_NAME);
+    Properties prop = Utility.getProperties(file.getAbsolutePath());
+    return IndexSettings.load(prop);
+  }
+  
+  
   /**
    * Generate the endpoints file.
    */
@@ -387,9 +552,127 @@ public final class ZipManager
   {
     // Index the contents of the zip file
     ZipIndexer zipper = new ZipIndexer();
+    zipper.setSettings(indexSettings);
     Logger.info("Indexing zip file " + zipfile);
     zipper.indexZipFile(zipfile, indexDir);
-    Logger.info("Finished indexing the zip file");
+    indexThroughput = zipper.getThroughput();
+    Logger.info("Finished indexing the zip file. " + indexThroughput);
+    
+    // Pick up the changes in the shared searcher, and in the workspace
+    // if the directory is part of it
+    refreshIndexHandle();
+    WorkspaceManager.getInstance().refresh();
+  }
+  
+  
+  /**
+   * Get the shared handle on the index, opening it if needed.
+   * 
+   * @return the index handle, or null if there is no index
+   */
+  private synchronized IndexHandle getIndexHandle()
+  {
+    if ((indexHandle == null) && (indexDir != null))
+    {
+      indexHandle = IndexHandle.open(indexDir, indexSettings);
+    }
+    
+    return indexHandle;
+  }
+  
+  
+  /**
+   * Reopen the shared searcher if the index changed.
+   */
+  private synchronized void refreshIndexHandle()
+  {
+    if (indexHandle != null)
+    {
+      indexHandle.refresh();
+    }
+  }
+  
+  
+  /**
+   * Get the shared handle on the zip file, opening it if needed.  The
+   * handle is reopened if the zip file was modified since it was opened.
+   * 
+   * @return the zip file, or null if no zip file is open
+   * @throws IOException if the zip file cannot be opened
+   */
+  private synchronized ZipFile getZipHandle() throws IOException
+  {
+    if (zipfile == null)
+    {
+      return null;
+    }
+    
+    checkZipModified();
+    if (zipHandle == null)
+    {
+      zipHandle = new ZipFile(zipfile);
+      zipHandleTime = new File(zipfile).lastModified();
+    }
+    
+    return zipHandle;
+  }
+  
+  
+  /**
+   * Empty the cache of file text and apply the configured budget.
+   */
+  private void resetContentCache()
+  {
+    contentCache.clear();
+    contentCache.setMaxBytes(WindowState.getInstance().getContentCacheBytes());
+  }
+  
+  
+  /**
+   * If the zip file was modified since the handle was opened, close
+   * the handle and drop the cached file text.
+   */
+  private synchronized void checkZipModified()
+  {
+    if ((zipHandle != null) && (new File(zipfile).lastModified() != zipHandleTime))
+    {
+      closeZipHandle();
+      contentCache.clear();
+    }
+  }
+  
+  
+  /**
+   * Close the shared handle on the zip file.
+   */
+  private synchronized void closeZipHandle()
+  {
+    if (zipHandle != null)
+    {
+      try
+      {
+        zipHandle.close();
+      }
+      catch (IOException e)
+      {
+        Logger.error(e);
+      }
+      
+      zipHandle = null;
+    }
+  }
+  
+  
+  /**
+   * Close the shared handle on the index.
+   */
+  private synchronized void closeIndexHandle()
+  {
+    if (indexHandle != null)
+    {
+      indexHandle.close();
+      indexHandle = null;
+    }
   }
   
   
@@ -509,6 +792,46 @@ public final class ZipManager
   }
   
   
+  /**
+   * Get the names of the files in the zip.  The list is not changed
+   * afterwards, so it can be read from another thread.
+   * 
+   * @return the list of names, or null if no zip is open
+   */
+  public List<String> getFiles()
+  {
+    return files;
+  }
+  
+  
+  /**
+   * Get the lowercase names of the files in the zip.
+   * 
+   * @return the name table, or null if no zip is open
+   */
+  public NameTable getNameTable()
+  {
+    return nameTable;
+  }
+  
+  
+  /**
+   * Get the central directory metadata for a file in the zip.
+   * 
+   * @param name the name of the file
+   * @return the metadata, or null if the file is not in the zip
+   */
+  public ZipEntryInfo getEntryInfo(final String name)
+  {
+    if (entryInfo == null)
+    {
+      return null;
+    }
+    
+    return entryInfo.get(name);
+  }
+  
+  
   /**
    * Get the list of endpoints.
    * 
@@ -527,6 +850,24 @@ public final class ZipManager
   }
   
   
+  /**
+   * Find the file names that best match a fuzzy pattern.
+   * 
+   * @param pattern the pattern
+   * @param max the maximum number of matches
+   * @return the matches, best first, or null if no zip is open
+   */
+  public List<FuzzyFinder.Match> findFiles(final String pattern, final int max)
+  {
+    if (files == null)
+    {
+      return null;
+    }
+    
+    return FuzzyFinder.find(files, nameTable, pattern, max);
+  }
+  
+  
   /**
    * Copy the list of file names matching on the query.
    * 
@@ -537,11 +878,12 @@ public final class ZipManager
   {
     final int size = files.size();
     List<String> list = new ArrayList<String>(size);
-    for (String fname : files)
+    final char[] key = (query == null) ? null : NameTable.toLowerChars(query);
+    for (int i = 0; i < size; ++i)
     {
-      if ((query == null) || (fname.toLowerCase().indexOf(query.toLowerCase()) >= 0))
+      if ((key == null) || (nameTable == null) || nameTable.contains(i, key))
       {
-        list.add(fname);
+        list.add(files.get(i));
       }
     }
     
@@ -550,18 +892,248 @@ public final class ZipManager
   
   
   /**
-   * Search the Lucene index for the files with the text.
+   * Add the best matching lines of each file to the search results.
+   * The text of each file is scanned for the terms of the query, in
+   * the order of the results, until the time budget runs out.  The
+   * results after that, and the files without indexed text, are left
+   * without snippets.
    * 
+   * @param results the search results
    * @param query the query string
-   * @return the list of search results
+   * @param budgetMillis the time budget, in milliseconds
+   * @return the number of results given snippets
    */
-  public List<SearchResult> search(final String query)
+  public int addSnippets(final List<SearchResult> results, final String query,
+                         final long budgetMillis)
   {
-    List<SearchResult> results = new ZipIndexer().queryIndex(query, indexDir);
-    return results;
+    final SnippetBuilder builder;
+    try
+    {
+      builder = new SnippetBuilder(queryIndexer.parseQuery(query), ZipIndexer.FIELD_TEXT);
+    }
+    catch (ParseException e)
+    {
+      Logger.debug("No snippets for " + query + ": " + e.getMessage());
+      return 0;
+    }
+    
+    if (!builder.hasTerms())
+    {
+      return 0;
+    }
+    
+    final long deadline = System.currentTimeMillis() + budgetMillis;
+    int count = 0;
+    for (SearchResult sr : results)
+    {
+      if (System.currentTimeMillis() >= deadline)
+      {
+        Logger.debug("The snippet budget ran out after " + count + " of "
+            + results.size() + " results");
+        break;
+      }
+      
+      // Only the path of a file without indexed text can match
+      if (sr.hasText())
+      {
+        sr.setSnippets(builder.build(getFileText(sr.getDoc())));
+        ++count;
+      }
+    }
+    
+    return count;
+  }
+  
+  
+  /**
+   * Fetch one page of the results of a search of the Lucene index.
+   * 
+   * @param options the search options
+   * @param previous the previous page, or null for the first page
+   * @param pageSize the maximum number of results on the page
+   * @return the page of results
+   */
+  public SearchPage searchPage(final SearchOptions options, final SearchPage previous,
+                               final int pageSize)
+  {
+    final IndexHandle handle = getIndexHandle();
+    if (handle == null)
+    {
+      return SearchPage.empty((previous == null) ? 0 : previous.getEnd());
+    }
+    
+    return queryIndexer.queryPage(options, previous, pageSize, handle);
+  }
+  
+  
+  /**
+   * Search the Lucene index without ranking, passing the path of each
+   * matching file to the handler as it is found.
+   * 
+   * @param options the search options
+   * @param handler the handler for the matching paths
+   * @return the number of matching paths passed to the handler
+   */
+  public int streamSearch(final SearchOptions options, final IResultHandler handler)
+  {
+    final IndexHandle handle = getIndexHandle();
+    if (handle == null)
+    {
+      return 0;
+    }
+    
+    return queryIndexer.streamIndex(options, handler, handle);
   }
 
 
+  /**
+   * Search the text of the files for a literal string or a regular
+   * expression.  The trigram index narrows the files to check, and
+   * the candidates are then checked in parallel.
+   * 
+   * @param text the literal string or regular expression
+   * @param regex whether the text is a regular expression
+   * @return the list of matching files, in index order
+   * @throws java.util.regex.PatternSyntaxException if the regex is invalid
+   */
+  public List<SearchResult> grep(final String text, final boolean regex)
+  {
+    return grep(new SearchOptions(text), regex);
+  }
+  
+  
+  /**
+   * Search the text of the files for a literal string or a regular
+   * expression, only checking the files whose names pass the filters
+   * of the search options.  If the calling thread is interrupted, the
+   * search stops early and returns no matches.
+   * 
+   * @param options the search options, whose query is the text to find
+   * @param regex whether the text is a regular expression
+   * @return the list of matching files, in index order
+   * @throws java.util.regex.PatternSyntaxException if the regex is invalid
+   */
+  public List<SearchResult> grep(final SearchOptions options, final boolean regex)
+  {
+    final String text = options.getQuery();
+    final Pattern pattern = GrepSearcher.compile(text, regex);
+    final IndexHandle handle = getIndexHandle();
+    if (handle == null)
+    {
+      return new ArrayList<SearchResult>(0);
+    }
+    
+    final Query query = GrepSearcher.buildGramQuery(
+        GrepSearcher.getRequiredLiterals(text, regex));
+    final Filter filter = ZipIndexer.buildFilter(options);
+    List<SearchResult> results = new ArrayList<SearchResult>(100);
+    ExecutorService pool = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors());
+    try
+    {
+      // Find the files that contain every trigram of the search text.
+      // This runs on a worker, so interrupting the caller to cancel the
+      // search cannot interrupt a read of the index.
+      final List<String> candidates = pool.submit(new Callable<List<String>>()
+      {
+        @Override
+        public List<String> call()
+        {
+          return GrepSearcher.findCandidates(handle, query, filter);
+        }
+      }).get();
+      Logger.debug("Checking " + candidates.size() + " candidate files for " + text);
+      
+      results = checkCandidates(candidates, pattern, pool, Thread.currentThread());
+    }
+    catch (InterruptedException e)
+    {
+      // A newer search replaced this one
+      Logger.debug("The text search for " + text + " was cancelled");
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e)
+    {
+      Logger.error("Error checking the candidate files: " + e.getCause());
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+    
+    final int max = options.getMaxResults();
+    return (((max > 0) && (results.size() > max)) ? new ArrayList<SearchResult>(results.subList(0, max))
+        : results);
+  }
+  
+  
+  /**
+   * Check the text of each candidate file for the pattern.  Each worker
+   * stops at its next file once the caller is interrupted.
+   * 
+   * @param candidates the names of the candidate files
+   * @param pattern the pattern to find
+   * @param pool the workers
+   * @param caller the thread that started the search
+   * @return the list of matching files, in the order of the candidates
+   * @throws InterruptedException if the caller is interrupted
+   * @throws ExecutionException if a worker fails
+   */
+  private List<SearchResult> checkCandidates(final List<String> candidates,
+                                             final Pattern pattern,
+                                             final ExecutorService pool,
+                                             final Thread caller)
+    throws InterruptedException, ExecutionException
+  {
+    final int numCandidates = candidates.size();
+    final int numThreads = Math.max(1, Math.min(
+        Runtime.getRuntime().availableProcessors(), numCandidates / 16));
+    final int chunkSize = (numCandidates + numThreads - 1) / Math.max(1, numThreads);
+    
+    // Split the candidates into one chunk per thread
+    List<Callable<List<SearchResult>>> tasks =
+        new ArrayList<Callable<List<SearchResult>>>(numThreads);
+    for (int start = 0; start < numCandidates; start += chunkSize)
+    {
+      final List<String> chunk = candidates.subList(start,
+          Math.min(numCandidates, start + chunkSize));
+      tasks.add(new Callable<List<SearchResult>>()
+      {
+        @Override
+        public List<SearchResult> call()
+        {
+          List<SearchResult> matches = new ArrayList<SearchResult>(chunk.size());
+          for (String name : chunk)
+          {
+            if (caller.isInterrupted())
+            {
+              break;
+            }
+            
+            // Most candidates are read only to be checked, so do not cache them
+            final String text = getFileText(name, false);
+            final int count = (text == null) ? 0 : GrepSearcher.countMatches(text, pattern);
+            if (count > 0)
+            {
+              matches.add(new SearchResult(name, count));
+            }
+          }
+          
+          return matches;
+        }
+      });
+    }
+    
+    List<SearchResult> results = new ArrayList<SearchResult>(100);
+    for (Future<List<SearchResult>> future : pool.invokeAll(tasks))
+    {
+      results.addAll(future.get());
+    }
+    
+    return results;
+  }
+  
+  
   /**
    * Get the contents of the specified file.
    * 
@@ -569,29 +1141,48 @@ public final class ZipManager
    * @return the text from the file
    */
   public String getFileText(String name)
+  {
+    return getFileText(name, true);
+  }
+  
+  
+  /**
+   * Get the contents of the specified file, optionally without adding
+   * it to the cache.  A cached copy is used either way.
+   * 
+   * @param name the name of the file
+   * @param cacheText whether to cache the text once it is read
+   * @return the text from the file
+   */
+  private String getFileText(final String name, final boolean cacheText)
   {
     if (zipfile == null)
     {
       return null;
     }
     
-    String text = null;
+    // Check the cache
+    checkZipModified();
+    String text = contentCache.get(name);
+    if (text != null)
+    {
+      return text;
+    }
+    
     try
     {
-      ZipFile zip = new ZipFile(zipfile);  
-      ZipEntry entry = zip.getEntry(name);
-      if (entry != null)
+      // Get the bytes of the file, which may be in a nested archive
+      ZipFile zip = getZipHandle();
+      final byte[] data = (zip == null) ? null : ArchiveReader.readEntry(zip, name);
+      if (data != null)
       {
-        // Get the text from the file
-        InputStream is = zip.getInputStream(entry);
-        final java.util.Scanner s = new java.util.Scanner(is);
-        s.useDelimiter("\\A");
-        text = s.hasNext() ? s.next() : "";
-        s.close();
-        is.close();
+        // Decode the text the same way it was indexed
+        text = TextDecoder.decode(data, indexSettings.getCharset());
+        if (cacheText)
+        {
+          contentCache.put(name, text);
+        }
       }
-      
-      zip.close();
     }
     catch (IOException e)
     {
@@ -659,6 +1250,17 @@ public final class ZipManager
         }
       }
       
+      sb.append("The index directory mode is " + indexSettings.getDirectoryMode()
+          + " (using " + indexSettings.getEffectiveDirectoryMode() + ")\n");
+      appendIndexSizes(sb);
+      
+      if (indexThroughput != null)
+      {
+        sb.append(indexThroughput).append("\n");
+      }
+      
+      sb.append(contentCache.toString()).append("\n");
+      
       if (files == null)
       {
         sb.append("The list of files is empty\n");
@@ -666,9 +1268,79 @@ public final class ZipManager
       else
       {
         sb.append("The number of files in the zip is " + files.size() + "\n");
+        appendEntryTotals(sb);
       }
     }
     
     return sb.toString();
   }
+  
+  
+  /**
+   * Add the size of the index, and how much of it is stored text,
+   * to the string.
+   * 
+   * @param sb the string builder
+   */
+  private void appendIndexSizes(final StringBuilder sb)
+  {
+    sb.append("The file text is " + (indexSettings.isStoreText() ? "stored" : "not stored")
+        + " in the index, with term vectors "
+        + (indexSettings.isTermVectors() ? "on" : "off") + "; the charset is "
+        + indexSettings.getCharsetName() + "\n");
+    
+    final IndexSizes sizes = IndexSizes.measure(indexDir, indexSettings);
+    if (sizes == null)
+    {
+      return;
+    }
+    
+    sb.append(sizes.toString()).append("\n");
+    if (sizes.getTotalBytes() > 0L)
+    {
+      sb.append(String.format("Without stored fields and term vectors the index "
+          + "would be %d bytes (%.1f%% of its size)\n", sizes.getPostingsBytes(),
+          (100.0 * sizes.getPostingsBytes()) / sizes.getTotalBytes()));
+    }
+  }
+  
+  
+  /**
+   * Add the total sizes of the files in the zip to the string.
+   * 
+   * @param sb the string builder
+   */
+  private void appendEntryTotals(final StringBuilder sb)
+  {
+    if (entryInfo == null)
+    {
+      return;
+    }
+    
+    long size = 0L;
+    long compressedSize = 0L;
+    int numStored = 0;
+    int numNested = 0;
+    for (ZipEntryInfo info : entryInfo.values())
+    {
+      // The files in nested archives are part of the archive's size
+      if (ArchiveReader.isNested(info.getName()))
+      {
+        ++numNested;
+        continue;
+      }
+      
+      size += Math.max(0L, info.getSize());
+      compressedSize += Math.max(0L, info.getCompressedSize());
+      if (!info.isCompressed())
+      {
+        ++numStored;
+      }
+    }
+    
+    sb.append("The uncompressed size of the files is " + size + " bytes ("
+        + compressedSize + " bytes compressed)\n");
+    sb.append("The number of uncompressed (stored) files is " + numStored + "\n");
+    sb.append("The number of files in nested archives is " + numNested + "\n");
+  }
 }
@@ -4,6 +4,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
 
+import io.miti.codeman.util.NameTable;
+
 /**
  * The search key data for a code.
  * 
@@ -17,6 +19,16 @@ public final class CodeKey
 	 */
 	private List<String> key = new ArrayList<String>(10);
 	
+	/**
+	 * The characters of the key data, for matching against a name table.
+	 */
+	private char[][] keyChars = new char[0][];
+	
+	/**
+	 * The mask of the characters in the key data.
+	 */
+	private long keyMask = 0L;
+	
 	/**
 	 * Name of the code the key is based on.
 	 */
@@ -63,6 +75,13 @@ public final class CodeKey
 			  key.add(token.toLowerCase());
 			}
 		}
+		
+		keyChars = new char[key.size()][];
+		for (int i = 0; i < keyChars.length; ++i)
+		{
+		  keyChars[i] = NameTable.toLowerChars(key.get(i));
+		}
+		keyMask = NameTable.getMask(keyChars);
 	}
 	
 	
@@ -80,10 +99,12 @@ public final class CodeKey
 			return true;
 		}
 		
+		// The key data is already lowercase
+		final String lower = file.toLowerCase();
 		boolean rc = true;
 		for (String code : key)
 		{
-			if (!file.toLowerCase().contains(code.toLowerCase()))
+			if (!lower.contains(code))
 			{
 				rc = false;
 				break;
@@ -94,6 +115,52 @@ public final class CodeKey
 	}
 	
 	
+	/**
+	 * Check for a match of a file in the name table on the key.  This
+	 * does not allocate, so it is used to filter the whole file list.
+	 * 
+	 * @param table the lowercase file names
+	 * @param index the index of the file in the table
+	 * @return whether the file is a match
+	 */
+	public boolean codeMatches(final NameTable table, final int index)
+	{
+		return table.containsAll(index, keyChars, keyMask);
+	}
+	
+	
+	/**
+	 * Return whether this key is a refinement of another key, so every
+	 * file that matches this key also matches the other.  That is true
+	 * when each token of the other key is part of a token of this key.
+	 * 
+	 * @param other the other key
+	 * @return whether this key only narrows the matches of the other
+	 */
+	public boolean refines(final CodeKey other)
+	{
+		for (String code : other.key)
+		{
+			boolean found = false;
+			for (String token : key)
+			{
+				if (token.contains(code))
+				{
+					found = true;
+					break;
+				}
+			}
+			
+			if (!found)
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	
 	/**
 	 * Print the key data.
 	 */
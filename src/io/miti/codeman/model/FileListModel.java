@@ -1,15 +1,51 @@
 package io.miti.codeman.model;
 
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
 
 import io.miti.codeman.gui.CodeMan;
+import io.miti.codeman.managers.ZipManager;
+import io.miti.codeman.util.NameTable;
 
 @SuppressWarnings("rawtypes")
 public final class FileListModel extends AbstractListModel
 {
   private static final long serialVersionUID = 1L;
   
+  /** Runs the filters off the Event Dispatch Thread. */
+  private static final ExecutorService executor = Executors.newSingleThreadExecutor(
+      new ThreadFactory()
+      {
+        @Override
+        public Thread newThread(final Runnable r)
+        {
+          Thread thread = new Thread(r, "FileListModel");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+  
+  /** The subset shown in the list.  This is only changed on the Event Dispatch Thread. */
   private FileSubset subset = null;
+  
+  /**
+   * The number of the latest filter.  The result of a filter whose
+   * number is no longer the latest is dropped.
+   */
+  private final transient AtomicInteger generation = new AtomicInteger(0);
+  
+  /** The filter running or waiting on the executor, if any. */
+  private transient Future<?> pending = null;
+  
+  /** Whether the filter text is a fuzzy pattern, with the files ranked by score. */
+  private boolean fuzzy = false;
 
   public FileListModel()
   {
@@ -34,32 +70,117 @@ public final class FileListModel extends AbstractListModel
   
   
   /**
-   * Update the key used to determine the subset of albums to display.
+   * Update the key used to determine the subset of files to display.
+   * A forced update, such as for a newly opened zip, is done at once
+   * in the current mode, and the caller redraws the list.  Otherwise the subset is built on
+   * a background thread, cancelling any earlier filter, and the list
+   * is redrawn on the Event Dispatch Thread when the subset is ready.
    * 
-   * @param artist the artist name
-   * @param album the album name
-   * @return whether the table needs to be redrawn
+   * @param file the filter text
+   * @param forceUpdate whether to rebuild the subset even if the key is the same
+   * @return whether the caller needs to redraw the list
    */
   public boolean setSubsetKey(final String file, final boolean forceUpdate)
   {
-    // Optimize this to check for the same codes
-    boolean redrawNeeded = false;
-    if (forceUpdate || !subset.isBasedOn(file))
+    cancelFilter();
+    final boolean useFuzzy = fuzzy && (file.trim().length() > 0);
+    
+    // Take the current file list, since a new zip replaces it on this thread
+    final List<String> names = ZipManager.getInstance().getFiles();
+    final NameTable table = ZipManager.getInstance().getNameTable();
+    if (forceUpdate)
     {
-      // System.out.println("Subset changed in FileListModel!  Need to redraw.");
-      subset.clear();
-      subset = new FileSubset(file);
-      // System.out.println("Size is now " + getSize());
-      
-      // Show the number of rows in the status bar
+      // The file list changed, so the old subsets cannot be narrowed
+      subset = (useFuzzy ? FileSubset.fuzzy(file, names, table) : new FileSubset(file));
       showRowCount();
-      
-      // The subset changed, so we need to redraw the list
-      redrawNeeded = true;
+      return true;
+    }
+    
+    if (subset.isBasedOn(file) && (subset.isFuzzy() == useFuzzy))
+    {
+      // The list already shows this key
+      return false;
     }
     
-    // Return whether the table needs to be redrawn
-    return redrawNeeded;
+    // Rank the fuzzy matches, or narrow the current matches or go back to earlier ones
+    final int gen = generation.get();
+    final FileSubset base = subset;
+    pending = executor.submit(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        final FileSubset next = (useFuzzy
+            ? FileSubset.fuzzy(file, names, table) : base.narrow(file));
+        if (Thread.currentThread().isInterrupted())
+        {
+          // The filter was cancelled, so the subset may be partial
+          return;
+        }
+        
+        showSubset(next, gen);
+      }
+    });
+    
+    return false;
+  }
+  
+  
+  /**
+   * Switch between matching the filter text as words and as a fuzzy
+   * pattern, and filter the list again.
+   * 
+   * @param bFuzzy whether the filter text is a fuzzy pattern
+   * @param file the filter text
+   */
+  public void setFuzzy(final boolean bFuzzy, final String file)
+  {
+    fuzzy = bFuzzy;
+    setSubsetKey(file, false);
+  }
+  
+  
+  /**
+   * Show a subset built on the background thread, unless a newer
+   * filter was started since.
+   * 
+   * @param next the new subset
+   * @param gen the number of the filter that built the subset
+   */
+  private void showSubset(final FileSubset next, final int gen)
+  {
+    SwingUtilities.invokeLater(new Runnable()
+    {
+      @Override
+      public void run()
+      {
+        if (gen != generation.get())
+        {
+          return;
+        }
+        
+        // Swap in the whole subset at once, and redraw the list
+        pending = null;
+        subset = next;
+        showRowCount();
+        contentChanged();
+      }
+    });
+  }
+  
+  
+  /**
+   * Cancel the filter that is running or waiting, if any.  The subsets
+   * it may still be reading are not cleared; they are dropped instead.
+   */
+  private void cancelFilter()
+  {
+    generation.incrementAndGet();
+    if (pending != null)
+    {
+      pending.cancel(true);
+      pending = null;
+    }
   }
   
   
@@ -87,7 +208,7 @@ public final class FileListModel extends AbstractListModel
   
   public void clearList()
   {
-    subset.clear();
+    cancelFilter();
     subset = new FileSubset("sadjfhlakjhdfalsdjfh");
     contentChanged();
   }
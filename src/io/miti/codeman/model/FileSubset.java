@@ -1,18 +1,43 @@
 package io.miti.codeman.model;
 
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import io.miti.codeman.managers.ZipManager;
+import io.miti.codeman.util.FuzzyFinder;
+import io.miti.codeman.util.IntList;
+import io.miti.codeman.util.NameTable;
 
 public final class FileSubset
 {
+  /** The number of earlier subsets kept for narrowing and going back. */
+  private static final int MAX_HISTORY = 16;
+  
+  /** The number of files checked between checks for cancellation, less one. */
+  private static final int CANCEL_MASK = 0xFFF;
+  
   /** The key for this subset. */
   private CodeKey key = null;
   
+  /** The number of files kept in a fuzzy subset. */
+  private static final int MAX_FUZZY_MATCHES = 1000;
+  
+  /** The initial capacity of the indexes of a subset scanned from every file. */
+  private static final int INITIAL_CAPACITY = 256;
+  
   /** The list of indexes into the file list, for this subset. */
-  private List<Integer> lookup = new ArrayList<Integer>(50);
+  private IntList lookup = new IntList(1);
+  
+  /** Whether every file matches, so the indexes are not stored. */
+  private boolean matchesAll = false;
+  
+  /** Whether the subset is the best fuzzy matches of the key, ranked by score. */
+  private boolean fuzzy = false;
+  
+  /** The file names the subset was built from. */
+  private NameTable table = null;
+  
+  /** The subset this one was narrowed from, or null if it scanned every file. */
+  private FileSubset parent = null;
   
   /**
    * Default constructor.
@@ -36,6 +61,134 @@ public final class FileSubset
   }
   
   
+  /**
+   * Constructor for a subset narrowed from an earlier subset.  Only
+   * the files in the earlier subset are checked, unless it holds most
+   * of the files, when scanning the whole table in order is faster.
+   * 
+   * @param pKey the key, which refines the key of the earlier subset
+   * @param pParent the earlier subset
+   */
+  private FileSubset(final CodeKey pKey, final FileSubset pParent)
+  {
+    key = pKey;
+    parent = pParent;
+    table = pParent.table;
+    if (pParent.getCount() > (table.size() / 2))
+    {
+      loadSubset();
+    }
+    else
+    {
+      // The earlier subset's size bounds this one, so the list never grows
+      final IntList indexes = pParent.lookup;
+      final int size = indexes.size();
+      lookup = new IntList(size);
+      for (int i = 0; i < size; ++i)
+      {
+        if (((i & CANCEL_MASK) == 0) && Thread.currentThread().isInterrupted())
+        {
+          break;
+        }
+        
+        final int index = indexes.get(i);
+        if (key.codeMatches(table, index))
+        {
+          lookup.add(index);
+        }
+      }
+      lookup.trim();
+    }
+    
+    trimHistory();
+  }
+  
+  
+  /**
+   * Return the subset of the files that best match a fuzzy pattern,
+   * with the best match first.  Only the top matches are kept.  The
+   * names and table are taken by the caller, so a filter running in
+   * the background does not see a new file list half way through.
+   * 
+   * @param file the pattern
+   * @param names the names of the files, or null if no zip is open
+   * @param pTable the lowercase names of the files
+   * @return the subset
+   */
+  public static FileSubset fuzzy(final String file, final List<String> names,
+                                 final NameTable pTable)
+  {
+    FileSubset subset = new FileSubset();
+    subset.buildKey(file);
+    subset.fuzzy = true;
+    subset.table = pTable;
+    if (names != null)
+    {
+      final List<FuzzyFinder.Match> matches =
+          FuzzyFinder.find(names, pTable, file, MAX_FUZZY_MATCHES);
+      subset.lookup = new IntList(matches.size());
+      for (FuzzyFinder.Match match : matches)
+      {
+        subset.lookup.add(match.getIndex());
+      }
+    }
+    
+    return subset;
+  }
+  
+  
+  /**
+   * Return the subset for a new key.  When the key extends the key of
+   * this subset, or of one of the subsets this was narrowed from, only
+   * that subset's files are checked.  When the key goes back to an
+   * earlier key, the earlier subset is returned as it is.  If the
+   * thread is interrupted, the new subset may be partial.
+   * 
+   * @param file the new key
+   * @return the subset for the key
+   */
+  public FileSubset narrow(final String file)
+  {
+    final CodeKey newKey = new CodeKey(file);
+    final NameTable current = ZipManager.getInstance().getNameTable();
+    for (FileSubset base = this; base != null; base = base.parent)
+    {
+      if ((base.table != current) || (base.lookup == null) || base.fuzzy)
+      {
+        break;
+      }
+      else if (base.isBasedOn(file))
+      {
+        return base;
+      }
+      else if (newKey.refines(base.key))
+      {
+        return new FileSubset(newKey, base);
+      }
+    }
+    
+    return new FileSubset(file);
+  }
+  
+  
+  /**
+   * Drop the oldest subsets in the history, to bound the memory used.
+   */
+  private void trimHistory()
+  {
+    FileSubset subset = this;
+    for (int i = 1; (i < MAX_HISTORY) && (subset != null); ++i)
+    {
+      subset = subset.parent;
+    }
+    
+    if (subset != null)
+    {
+      subset.parent = null;
+    }
+  }
+  
+  
   /**
    * Build the key using the artist and album name.
    * 
@@ -49,30 +202,39 @@ public final class FileSubset
   
   
   /**
-   * Load the subset.
+   * Load the subset.  When the thread is interrupted the scan stops,
+   * and the partial subset must be dropped by the caller.
    */
   private void loadSubset()
   {
-    int index = 0;
-    Iterator<String> iter = ZipManager.getInstance().getFileIterator();
-    if (iter == null)
+    table = ZipManager.getInstance().getNameTable();
+    if (table == null)
     {
       // System.err.println("The file list iterator is null in FileSubset");
       return;
     }
+    else if (key.isEmpty())
+    {
+      // Every file matches, so there is no need to store the indexes
+      matchesAll = true;
+      return;
+    }
     
-    while (iter.hasNext())
+    final int size = table.size();
+    lookup = new IntList(INITIAL_CAPACITY);
+    for (int index = 0; index < size; ++index)
     {
-      // Get the next file in the list
-      String file = iter.next();
-      
-      // Check for a match
-      if (key.codeMatches(file))
+      // Stop early if the filter was cancelled by a newer one
+      if (((index & CANCEL_MASK) == 0) && Thread.currentThread().isInterrupted())
       {
-        lookup.add(Integer.valueOf(index));
+        break;
       }
       
-      ++index;
+      // Check for a match on the lowercase name
+      if (key.codeMatches(table, index))
+      {
+        lookup.add(index);
+      }
     }
   }
   
@@ -84,7 +246,7 @@ public final class FileSubset
    */
   public int getCount()
   {
-    return lookup.size();
+    return (matchesAll ? table.size() : lookup.size());
   }
 
   
@@ -107,7 +269,18 @@ public final class FileSubset
    */
   public String getFile(final int index)
   {
-    return ZipManager.getInstance().getFileAt(lookup.get(index));
+    return ZipManager.getInstance().getFileAt(matchesAll ? index : lookup.get(index));
+  }
+  
+  
+  /**
+   * Return whether the subset is ranked fuzzy matches.
+   * 
+   * @return whether the subset is fuzzy
+   */
+  public boolean isFuzzy()
+  {
+    return fuzzy;
   }
   
   
@@ -137,11 +310,18 @@ public final class FileSubset
   
   
   /**
-   * Empty the list.
+   * Empty the list, and the subsets it was narrowed from.
    */
   public void clear()
   {
-    lookup.clear();
-    lookup = null;
+    for (FileSubset subset = this; subset != null; subset = subset.parent)
+    {
+      if (subset.lookup != null)
+      {
+        subset.lookup.clear();
+        subset.lookup = null;
+      }
+    }
+    parent = null;
   }
 }
@@ -0,0 +1,190 @@
+package io.miti.codeman.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Read archives nested inside a zip file, such as the jars inside a
+ * war.  Nested archives are read as streams, without extracting them.
+ * An entry inside a nested archive has a composite path, with the
+ * path of each archive followed by a separator, such as
+ * app.war!/WEB-INF/lib/x-sources.jar!/com/Foo.java.
+ */
+public final class ArchiveReader
+{
+  /** The separator between an archive and the path of an entry inside it. */
+  public static final String SEPARATOR = "!/";
+  
+  /** The deepest level of nesting that is read. */
+  public static final int MAX_DEPTH = 4;
+  
+  /** The extensions of nested archives. */
+  private static final String[] ARCHIVE_EXTENSIONS = {".jar", ".war", ".ear", ".zip"};
+  
+  
+  /**
+   * Default constructor.
+   */
+  private ArchiveReader()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Return whether an entry name is an archive that can be read.
+   * 
+   * @param name the entry name
+   * @return whether the entry is an archive
+   */
+  public static boolean isArchive(final String name)
+  {
+    final String lower = name.toLowerCase();
+    for (String ext : ARCHIVE_EXTENSIONS)
+    {
+      if (lower.endsWith(ext))
+      {
+        return true;
+      }
+    }
+    
+    return false;
+  }
+  
+  
+  /**
+   * Return whether a path is inside a nested archive.
+   * 
+   * @param path the path
+   * @return whether the path is composite
+   */
+  public static boolean isNested(final String path)
+  {
+    return (path.indexOf(SEPARATOR) >= 0);
+  }
+  
+  
+  /**
+   * Return the name of the top-level entry that a path is in.
+   * 
+   * @param path the path
+   * @return the top-level entry name
+   */
+  public static String getRoot(final String path)
+  {
+    final int index = path.indexOf(SEPARATOR);
+    return ((index < 0) ? path : path.substring(0, index));
+  }
+  
+  
+  /**
+   * Build the path of an entry inside a nested archive.
+   * 
+   * @param archive the path of the archive
+   * @param name the name of the entry inside the archive
+   * @return the composite path
+   */
+  public static String join(final String archive, final String name)
+  {
+    return archive + SEPARATOR + name;
+  }
+  
+  
+  /**
+   * Split a composite path into the entry name at each level.
+   * 
+   * @param path the path
+   * @return the entry names, starting with the top-level entry
+   */
+  public static List<String> split(final String path)
+  {
+    List<String> parts = new ArrayList<String>(2);
+    int start = 0;
+    int index = 0;
+    while ((index = path.indexOf(SEPARATOR, start)) >= 0)
+    {
+      parts.add(path.substring(start, index));
+      start = index + SEPARATOR.length();
+    }
+    parts.add(path.substring(start));
+    
+    return parts;
+  }
+  
+  
+  /**
+   * Open a nested archive.  Closing the returned stream does not close
+   * the stream it reads from.
+   * 
+   * @param is the stream of the archive's bytes
+   * @return the stream of the entries in the archive
+   */
+  public static ZipInputStream openNested(final InputStream is)
+  {
+    return new ZipInputStream(new FilterInputStream(is)
+    {
+      @Override
+      public void close()
+      {
+        // The caller closes the underlying stream
+      }
+    });
+  }
+  
+  
+  /**
+   * Read the contents of an entry, which may be inside nested archives.
+   * 
+   * @param zip the zip file
+   * @param path the path of the entry
+   * @return the contents, or null if the entry was not found
+   * @throws IOException if the entry cannot be read
+   */
+  public static byte[] readEntry(final ZipFile zip, final String path)
+    throws IOException
+  {
+    final List<String> parts = split(path);
+    final ZipEntry top = zip.getEntry(parts.get(0));
+    if (top == null)
+    {
+      return null;
+    }
+    
+    InputStream is = zip.getInputStream(top);
+    try
+    {
+      long size = top.getSize();
+      for (int i = 1; i < parts.size(); ++i)
+      {
+        // Scan the nested archive for the next part of the path
+        final ZipInputStream zis = new ZipInputStream(is);
+        is = zis;
+        ZipEntry entry = null;
+        while (((entry = zis.getNextEntry()) != null)
+               && !entry.getName().equals(parts.get(i)))
+        {
+          continue;
+        }
+        
+        if (entry == null)
+        {
+          return null;
+        }
+        
+        size = entry.getSize();
+      }
+      
+      return Utility.readFully(is, size);
+    }
+    finally
+    {
+      is.close();
+    }
+  }
+}
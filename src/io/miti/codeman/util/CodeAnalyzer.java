@@ -0,0 +1,80 @@
+package io.miti.codeman.util;
+
+import java.io.Reader;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.analysis.util.CharTokenizer;
+import org.apache.lucene.util.Version;
+
+/**
+ * An analyzer for source code.  Tokens are runs of letters, digits,
+ * underscores and dollar signs, so identifiers are kept whole, and no
+ * stop words are removed (if, for and the like are meaningful in code).
+ * When indexing, identifiers are also split into their parts by
+ * IdentifierSplitFilter.  Queries are not split, so a search for
+ * getUserAccountId matches that identifier rather than every file
+ * containing "get".
+ */
+public final class CodeAnalyzer extends Analyzer
+{
+  /** The Lucene version. */
+  private static final Version VERSION = Version.LUCENE_42;
+  
+  /** Whether to split identifiers into their parts. */
+  private final boolean splitIdentifiers;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param split whether to split identifiers (true when indexing)
+   */
+  public CodeAnalyzer(final boolean split)
+  {
+    super();
+    splitIdentifiers = split;
+  }
+  
+  
+  @Override
+  protected TokenStreamComponents createComponents(final String fieldName,
+                                                   final Reader reader)
+  {
+    final Tokenizer source = new CodeTokenizer(reader);
+    TokenStream sink = source;
+    if (splitIdentifiers)
+    {
+      sink = new IdentifierSplitFilter(sink);
+    }
+    sink = new LowerCaseFilter(VERSION, sink);
+    
+    return new TokenStreamComponents(source, sink);
+  }
+  
+  
+  /**
+   * Splits text into identifiers and numbers.
+   */
+  private static final class CodeTokenizer extends CharTokenizer
+  {
+    /**
+     * Constructor.
+     * 
+     * @param input the text to tokenize
+     */
+    public CodeTokenizer(final Reader input)
+    {
+      super(VERSION, input);
+    }
+    
+    
+    @Override
+    protected boolean isTokenChar(final int c)
+    {
+      return (Character.isLetterOrDigit(c) || (c == '_') || (c == '$'));
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package io.miti.codeman.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of decoded zip entry text, bounded by
+ * the approximate number of bytes held rather than by entry count.
+ */
+public final class ContentCache
+{
+  /** The approximate fixed cost of one cached entry, in bytes. */
+  private static final long ENTRY_OVERHEAD = 96L;
+  
+  /** The cached text, by entry name, in access order. */
+  private final LinkedHashMap<String, String> cache =
+      new LinkedHashMap<String, String>(64, 0.75f, true);
+  
+  /** The maximum number of bytes to hold. */
+  private long maxBytes = 0L;
+  
+  /** The approximate number of bytes held. */
+  private long currentBytes = 0L;
+  
+  /** The number of lookups that found the entry. */
+  private long hits = 0L;
+  
+  /** The number of lookups that did not find the entry. */
+  private long misses = 0L;
+  
+  /** The number of entries removed to stay within the budget. */
+  private long evictions = 0L;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param budget the maximum number of bytes to hold
+   */
+  public ContentCache(final long budget)
+  {
+    maxBytes = Math.max(0L, budget);
+  }
+  
+  
+  /**
+   * Get the text for an entry.
+   * 
+   * @param name the entry name
+   * @return the cached text, or null if it is not cached
+   */
+  public synchronized String get(final String name)
+  {
+    final String text = cache.get(name);
+    if (text == null)
+    {
+      ++misses;
+    }
+    else
+    {
+      ++hits;
+    }
+    
+    return text;
+  }
+  
+  
+  /**
+   * Add the text for an entry, evicting the least recently used
+   * entries to stay within the budget.  Text larger than the whole
+   * budget is not cached.
+   * 
+   * @param name the entry name
+   * @param text the entry text
+   */
+  public synchronized void put(final String name, final String text)
+  {
+    if ((name == null) || (text == null))
+    {
+      return;
+    }
+    
+    final long size = sizeOf(text);
+    if (size > maxBytes)
+    {
+      return;
+    }
+    
+    final String old = cache.put(name, text);
+    if (old != null)
+    {
+      currentBytes -= sizeOf(old);
+    }
+    currentBytes += size;
+    
+    // Evict the oldest entries until we are within the budget
+    Iterator<Map.Entry<String, String>> iter = cache.entrySet().iterator();
+    while ((currentBytes > maxBytes) && iter.hasNext())
+    {
+      final Map.Entry<String, String> eldest = iter.next();
+      currentBytes -= sizeOf(eldest.getValue());
+      iter.remove();
+      ++evictions;
+    }
+  }
+  
+  
+  /**
+   * Remove all entries.  The counters are kept.
+   */
+  public synchronized void clear()
+  {
+    cache.clear();
+    currentBytes = 0L;
+  }
+  
+  
+  /**
+   * Change the budget, evicting entries if needed.
+   * 
+   * @param budget the maximum number of bytes to hold
+   */
+  public synchronized void setMaxBytes(final long budget)
+  {
+    maxBytes = Math.max(0L, budget);
+    Iterator<Map.Entry<String, String>> iter = cache.entrySet().iterator();
+    while ((currentBytes > maxBytes) && iter.hasNext())
+    {
+      final Map.Entry<String, String> eldest = iter.next();
+      currentBytes -= sizeOf(eldest.getValue());
+      iter.remove();
+      ++evictions;
+    }
+  }
+  
+  
+  /**
+   * Return the approximate number of bytes used by a cached string.
+   * 
+   * @param text the string
+   * @return the approximate size in bytes
+   */
+  private static long sizeOf(final String text)
+  {
+    return ENTRY_OVERHEAD + (2L * text.length());
+  }
+  
+  
+  /**
+   * Return the cache statistics as a string.
+   * 
+   * @return the cache statistics
+   */
+  @Override
+  public synchronized String toString()
+  {
+    final long lookups = hits + misses;
+    final double hitRate = (lookups == 0L) ? 0.0 : ((100.0 * hits) / lookups);
+    return String.format("Content cache: %d entries, %d of %d bytes; "
+        + "%d hits, %d misses (%.1f%% hit rate), %d evictions",
+        cache.size(), currentBytes, maxBytes, hits, misses, hitRate, evictions);
+  }
+}
@@ -0,0 +1,130 @@
+package io.miti.codeman.util;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * A collector that counts the facet values of each hit, and passes the
+ * hit on to another collector.  The values are counted by their
+ * ordinal within each segment, and only looked up when the search
+ * moves to the next segment.
+ */
+public final class FacetCollector extends Collector
+{
+  /** The collector the hits are passed to. */
+  private final Collector delegate;
+  
+  /** The facet counts. */
+  private final FacetCounts counts = new FacetCounts();
+  
+  /** The doc values of each facet field in the current segment. */
+  private final SortedDocValues[] values = new SortedDocValues[FacetCounts.FIELDS.length];
+  
+  /** The counts by ordinal of each facet field in the current segment. */
+  private final int[][] ordCounts = new int[FacetCounts.FIELDS.length][];
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param pDelegate the collector the hits are passed to
+   */
+  public FacetCollector(final Collector pDelegate)
+  {
+    delegate = pDelegate;
+  }
+  
+  
+  @Override
+  public void setScorer(final Scorer scorer) throws IOException
+  {
+    delegate.setScorer(scorer);
+  }
+  
+  
+  @Override
+  public void collect(final int doc) throws IOException
+  {
+    for (int i = 0; i < values.length; ++i)
+    {
+      if (values[i] != null)
+      {
+        final int ord = values[i].getOrd(doc);
+        if (ord >= 0)
+        {
+          ++ordCounts[i][ord];
+        }
+      }
+    }
+    
+    delegate.collect(doc);
+  }
+  
+  
+  @Override
+  public void setNextReader(final AtomicReaderContext context) throws IOException
+  {
+    flush();
+    for (int i = 0; i < values.length; ++i)
+    {
+      values[i] = context.reader().getSortedDocValues(FacetCounts.FIELDS[i]);
+      ordCounts[i] = (values[i] == null) ? null : new int[values[i].getValueCount()];
+    }
+    
+    delegate.setNextReader(context);
+  }
+  
+  
+  @Override
+  public boolean acceptsDocsOutOfOrder()
+  {
+    return delegate.acceptsDocsOutOfOrder();
+  }
+  
+  
+  /**
+   * Add the counts of the current segment to the totals.
+   */
+  private void flush()
+  {
+    final BytesRef term = new BytesRef();
+    for (int i = 0; i < values.length; ++i)
+    {
+      if (values[i] == null)
+      {
+        continue;
+      }
+      
+      final int[] segCounts = ordCounts[i];
+      for (int ord = 0; ord < segCounts.length; ++ord)
+      {
+        if (segCounts[ord] > 0)
+        {
+          values[i].lookupOrd(ord, term);
+          counts.add(FacetCounts.FIELDS[i], term.utf8ToString(), segCounts[ord]);
+        }
+      }
+      
+      values[i] = null;
+      ordCounts[i] = null;
+    }
+  }
+  
+  
+  /**
+   * Return the facet counts of the hits collected.  This can be called
+   * after the search was stopped early, such as by a time limit.
+   * 
+   * @return the facet counts
+   */
+  public FacetCounts getCounts()
+  {
+    flush();
+    return counts;
+  }
+}
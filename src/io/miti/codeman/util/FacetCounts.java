@@ -0,0 +1,196 @@
+package io.miti.codeman.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The number of search hits for each value of the facet fields: the
+ * top-level directory, the module and the file extension of each
+ * file.  The facet values of a file are computed from its path when
+ * it is indexed, and stored in doc-values fields so a search can
+ * count them as it collects its hits.
+ */
+public final class FacetCounts
+{
+  /** The facet fields, in the order they are shown. */
+  public static final String[] FIELDS = {ZipIndexer.FIELD_FACET_DIR,
+    ZipIndexer.FIELD_FACET_MODULE, ZipIndexer.FIELD_FACET_EXT};
+  
+  /** The shown value for files without a directory, module or extension. */
+  public static final String NONE = "(none)";
+  
+  /** The name of the source directory that follows a module name. */
+  private static final String SOURCE_DIR = "src";
+  
+  /** The counts for each field, by value. */
+  private final Map<String, Map<String, Integer>> counts =
+      new LinkedHashMap<String, Map<String, Integer>>(4);
+  
+  
+  /**
+   * Default constructor.
+   */
+  public FacetCounts()
+  {
+    for (String field : FIELDS)
+    {
+      counts.put(field, new HashMap<String, Integer>(32));
+    }
+  }
+  
+  
+  /**
+   * Add to the count of a value.
+   * 
+   * @param field the facet field
+   * @param value the value
+   * @param count the number to add
+   */
+  void add(final String field, final String value, final int count)
+  {
+    final Map<String, Integer> map = counts.get(field);
+    final Integer old = map.get(value);
+    map.put(value, Integer.valueOf((old == null) ? count : (old.intValue() + count)));
+  }
+  
+  
+  /**
+   * Return the values of a field with the most hits, most hits first.
+   * 
+   * @param field the facet field
+   * @param max the maximum number of values
+   * @return the values and their counts
+   */
+  public List<Map.Entry<String, Integer>> getTop(final String field, final int max)
+  {
+    final Map<String, Integer> map = counts.get(field);
+    if (map == null)
+    {
+      return new ArrayList<Map.Entry<String, Integer>>(0);
+    }
+    
+    List<Map.Entry<String, Integer>> list =
+        new ArrayList<Map.Entry<String, Integer>>(map.entrySet());
+    Collections.sort(list, new Comparator<Map.Entry<String, Integer>>()
+    {
+      @Override
+      public int compare(final Map.Entry<String, Integer> e1,
+                         final Map.Entry<String, Integer> e2)
+      {
+        final int diff = e2.getValue().compareTo(e1.getValue());
+        return (diff != 0) ? diff : e1.getKey().compareTo(e2.getKey());
+      }
+    });
+    
+    return ((list.size() > max) ? list.subList(0, max) : list);
+  }
+  
+  
+  /**
+   * Return the label shown for a facet field.
+   * 
+   * @param field the facet field
+   * @return the label
+   */
+  public static String getLabel(final String field)
+  {
+    if (ZipIndexer.FIELD_FACET_DIR.equals(field))
+    {
+      return "Directory";
+    }
+    else if (ZipIndexer.FIELD_FACET_MODULE.equals(field))
+    {
+      return "Module";
+    }
+    
+    return "Extension";
+  }
+  
+  
+  /**
+   * Return the value shown for a facet value.
+   * 
+   * @param value the value
+   * @return the value, or a marker for an empty value
+   */
+  public static String getDisplayValue(final String value)
+  {
+    return ((value.length() == 0) ? NONE : value);
+  }
+  
+  
+  /**
+   * Return the top-level directory of a path.  For a file in a nested
+   * archive at the top of the zip, this is the archive.
+   * 
+   * @param path the path of a file
+   * @return the first directory in the path, or an empty string
+   */
+  public static String getTopDirectory(final String path)
+  {
+    int end = path.indexOf('/');
+    final int nested = path.indexOf(ArchiveReader.SEPARATOR);
+    if ((nested >= 0) && (nested < end))
+    {
+      end = nested;
+    }
+    
+    return ((end <= 0) ? "" : path.substring(0, end));
+  }
+  
+  
+  /**
+   * Return the module of a path.  A file in a nested archive belongs to
+   * the innermost archive.  Otherwise the module is the directory before
+   * the first src directory, as in core/src/main/java, or the top-level
+   * directory if there is no src directory.
+   * 
+   * @param path the path of a file
+   * @return the module, or an empty string
+   */
+  public static String getModule(final String path)
+  {
+    final int nested = path.lastIndexOf(ArchiveReader.SEPARATOR);
+    if (nested >= 0)
+    {
+      return path.substring(0, nested);
+    }
+    
+    final String dir = Utility.getDirNameFromZipEntry(path);
+    if (dir.equals(SOURCE_DIR) || dir.startsWith(SOURCE_DIR + "/"))
+    {
+      return "";
+    }
+    
+    final int src = dir.indexOf("/" + SOURCE_DIR + "/");
+    if (src > 0)
+    {
+      return dir.substring(0, src);
+    }
+    else if (dir.endsWith("/" + SOURCE_DIR))
+    {
+      return dir.substring(0, dir.length() - SOURCE_DIR.length() - 1);
+    }
+    
+    return getTopDirectory(path);
+  }
+  
+  
+  /**
+   * Return the lower-cased extension of a path.
+   * 
+   * @param path the path of a file
+   * @return the extension without the dot, or an empty string
+   */
+  public static String getExtension(final String path)
+  {
+    final String file = Utility.getFileNameFromZipEntry(path);
+    final int dot = file.lastIndexOf('.');
+    return ((dot <= 0) ? "" : file.substring(dot + 1).toLowerCase());
+  }
+}
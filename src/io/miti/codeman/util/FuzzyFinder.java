@@ -0,0 +1,577 @@
+package io.miti.codeman.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Find file names that fuzzily match a pattern, in the style of fzf.
+ * A name matches when it contains the characters of the pattern in
+ * order.  The match is scored so that characters at the start of a
+ * path segment, a word or a camelCase hump, and runs of consecutive
+ * characters, score higher than scattered ones, and gaps cost points.
+ * Characters matched in the file name itself, after the last slash,
+ * score extra.  A pattern with spaces is split into terms, and every
+ * term must match.  The names are scored in parallel on a fork/join
+ * pool, and each task keeps only the best matches in a bounded heap.
+ */
+public final class FuzzyFinder
+{
+  /** The score of each matched character. */
+  private static final int SCORE_MATCH = 16;
+  
+  /** The penalty for the first character of a gap. */
+  private static final int SCORE_GAP_START = -3;
+  
+  /** The penalty for each further character of a gap. */
+  private static final int SCORE_GAP_EXTENSION = -1;
+  
+  /** The bonus for a match at the start of a word. */
+  private static final int BONUS_BOUNDARY = SCORE_MATCH / 2;
+  
+  /** The bonus for matching a delimiter. */
+  private static final int BONUS_NON_WORD = SCORE_MATCH / 2;
+  
+  /** The bonus for a match at a camelCase hump or the start of a number. */
+  private static final int BONUS_CAMEL = BONUS_BOUNDARY + SCORE_GAP_EXTENSION;
+  
+  /** The smallest bonus for a match following another match. */
+  private static final int BONUS_CONSECUTIVE = -(SCORE_GAP_START + SCORE_GAP_EXTENSION);
+  
+  /** The bonus for a match in the file name, after the last slash. */
+  private static final int BONUS_FILE_NAME = 4;
+  
+  /** The bonus of the first character of a term is multiplied by this. */
+  private static final int BONUS_FIRST_CHAR_MULTIPLIER = 2;
+  
+  /** The number of names scored by one task, below which it is not split. */
+  private static final int SPLIT_THRESHOLD = 8192;
+  
+  /** The number of names scored between checks for cancellation, less one. */
+  private static final int CANCEL_MASK = 0xFFF;
+  
+  /** A name that does not match. */
+  private static final int NO_MATCH = Integer.MIN_VALUE;
+  
+  /** The class of a path or word delimiter, such as a slash or a dot. */
+  private static final int CLASS_DELIMITER = 0;
+  
+  /** The class of any other character that is not a letter or digit. */
+  private static final int CLASS_NON_WORD = 1;
+  
+  /** The class of a lowercase letter. */
+  private static final int CLASS_LOWER = 2;
+  
+  /** The class of an uppercase letter. */
+  private static final int CLASS_UPPER = 3;
+  
+  /** The class of a letter without case. */
+  private static final int CLASS_LETTER = 4;
+  
+  /** The class of a digit. */
+  private static final int CLASS_DIGIT = 5;
+  
+  /** Orders the matches worst first, for the heap of the best matches. */
+  private static final Comparator<Match> WORST_FIRST = new Comparator<Match>()
+  {
+    @Override
+    public int compare(final Match m1, final Match m2)
+    {
+      return m2.compareTo(m1);
+    }
+  };
+  
+  /** The pool that scores the names. */
+  private static final ForkJoinPool pool = new ForkJoinPool();
+  
+  
+  /**
+   * Default constructor.
+   */
+  private FuzzyFinder()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Find the names that best match a pattern.  If the calling thread
+   * is interrupted, the search stops early and the result is partial.
+   * 
+   * @param names the names
+   * @param table the lowercase names, used to skip names that lack a character of the pattern
+   * @param pattern the pattern
+   * @param max the maximum number of matches to return
+   * @return the matches, best first
+   */
+  public static List<Match> find(final List<String> names, final NameTable table,
+                                 final String pattern, final int max)
+  {
+    final char[][] terms = getTerms(pattern);
+    if ((terms.length == 0) || (max <= 0))
+    {
+      return new ArrayList<Match>(0);
+    }
+    
+    final ScoreTask task = new ScoreTask(names, table, terms, NameTable.getMask(terms),
+        max, Thread.currentThread(), 0, names.size());
+    List<Match> matches = new ArrayList<Match>(pool.invoke(task));
+    Collections.sort(matches);
+    return matches;
+  }
+  
+  
+  /**
+   * Split a pattern into lowercase terms at the spaces.
+   * 
+   * @param pattern the pattern
+   * @return the characters of each term
+   */
+  private static char[][] getTerms(final String pattern)
+  {
+    List<char[]> terms = new ArrayList<char[]>(2);
+    StringTokenizer st = new StringTokenizer(pattern, " ");
+    while (st.hasMoreTokens())
+    {
+      terms.add(NameTable.toLowerChars(st.nextToken()));
+    }
+    
+    return terms.toArray(new char[terms.size()][]);
+  }
+  
+  
+  /**
+   * Score a name against every term of a pattern.
+   * 
+   * @param name the name
+   * @param terms the lowercase terms
+   * @return the total score, or NO_MATCH if a term does not match
+   */
+  private static int score(final String name, final char[][] terms)
+  {
+    final int fileStart = name.lastIndexOf('/') + 1;
+    int total = 0;
+    for (char[] term : terms)
+    {
+      final int score = scoreTerm(name, term, fileStart);
+      if (score == NO_MATCH)
+      {
+        return NO_MATCH;
+      }
+      total += score;
+    }
+    
+    return total;
+  }
+  
+  
+  /**
+   * Score a name against one term.  The first match of the term is
+   * found scanning forward, and then the shortest match ending at the
+   * same place is found scanning backward.  That window is scored.
+   * 
+   * @param name the name
+   * @param term the lowercase term
+   * @param fileStart the index of the file name in the name
+   * @return the score, or NO_MATCH if the term does not match
+   */
+  private static int scoreTerm(final String name, final char[] term, final int fileStart)
+  {
+    // Find the end of the first match of every character, in order
+    final int length = name.length();
+    int pidx = 0;
+    int end = -1;
+    for (int i = 0; i < length; ++i)
+    {
+      if (Character.toLowerCase(name.charAt(i)) == term[pidx])
+      {
+        if (++pidx == term.length)
+        {
+          end = i + 1;
+          break;
+        }
+      }
+    }
+    
+    if (end < 0)
+    {
+      return NO_MATCH;
+    }
+    
+    // Work back from the end to the latest start of a match
+    int start = end - 1;
+    pidx = term.length - 1;
+    for (int i = end - 1; i >= 0; --i)
+    {
+      if (Character.toLowerCase(name.charAt(i)) == term[pidx])
+      {
+        if (--pidx < 0)
+        {
+          start = i;
+          break;
+        }
+      }
+    }
+    
+    // Score the window
+    int score = 0;
+    int consecutive = 0;
+    int firstBonus = 0;
+    boolean inGap = false;
+    pidx = 0;
+    int prevClass = (start > 0) ? getCharClass(name.charAt(start - 1)) : CLASS_DELIMITER;
+    for (int i = start; i < end; ++i)
+    {
+      final char ch = name.charAt(i);
+      final int charClass = getCharClass(ch);
+      if ((pidx < term.length) && (Character.toLowerCase(ch) == term[pidx]))
+      {
+        score += SCORE_MATCH;
+        int bonus = getBonus(prevClass, charClass);
+        if (consecutive == 0)
+        {
+          firstBonus = bonus;
+        }
+        else
+        {
+          // A run keeps the bonus of its first character
+          if ((bonus >= BONUS_BOUNDARY) && (bonus > firstBonus))
+          {
+            firstBonus = bonus;
+          }
+          bonus = Math.max(Math.max(bonus, firstBonus), BONUS_CONSECUTIVE);
+        }
+        
+        score += ((pidx == 0) ? (bonus * BONUS_FIRST_CHAR_MULTIPLIER) : bonus);
+        if (i >= fileStart)
+        {
+          score += BONUS_FILE_NAME;
+        }
+        
+        inGap = false;
+        ++consecutive;
+        ++pidx;
+      }
+      else
+      {
+        score += (inGap ? SCORE_GAP_EXTENSION : SCORE_GAP_START);
+        inGap = true;
+        consecutive = 0;
+        firstBonus = 0;
+      }
+      
+      prevClass = charClass;
+    }
+    
+    return score;
+  }
+  
+  
+  /**
+   * Return the class of a character.
+   * 
+   * @param ch the character
+   * @return the class
+   */
+  private static int getCharClass(final char ch)
+  {
+    if ((ch >= 'a') && (ch <= 'z'))
+    {
+      return CLASS_LOWER;
+    }
+    else if ((ch >= 'A') && (ch <= 'Z'))
+    {
+      return CLASS_UPPER;
+    }
+    else if ((ch >= '0') && (ch <= '9'))
+    {
+      return CLASS_DIGIT;
+    }
+    else if ((ch == '/') || (ch == '.') || (ch == '_') || (ch == '-') || (ch == ' ')
+             || (ch == '$') || (ch == '!'))
+    {
+      return CLASS_DELIMITER;
+    }
+    else if (Character.isLowerCase(ch))
+    {
+      return CLASS_LOWER;
+    }
+    else if (Character.isUpperCase(ch))
+    {
+      return CLASS_UPPER;
+    }
+    else if (Character.isLetterOrDigit(ch))
+    {
+      return CLASS_LETTER;
+    }
+    
+    return CLASS_NON_WORD;
+  }
+  
+  
+  /**
+   * Return the bonus for matching a character, given the class of the
+   * character before it.
+   * 
+   * @param prevClass the class of the previous character
+   * @param charClass the class of the matched character
+   * @return the bonus
+   */
+  private static int getBonus(final int prevClass, final int charClass)
+  {
+    if ((charClass == CLASS_DELIMITER) || (charClass == CLASS_NON_WORD))
+    {
+      return BONUS_NON_WORD;
+    }
+    else if ((prevClass == CLASS_DELIMITER) || (prevClass == CLASS_NON_WORD))
+    {
+      return BONUS_BOUNDARY;
+    }
+    else if (((prevClass == CLASS_LOWER) && (charClass == CLASS_UPPER))
+             || ((prevClass != CLASS_DIGIT) && (charClass == CLASS_DIGIT)))
+    {
+      return BONUS_CAMEL;
+    }
+    
+    return 0;
+  }
+  
+  
+  /**
+   * Scores a range of the names, splitting it across the pool when it
+   * is large.  The result is the best matches in the range.
+   */
+  private static final class ScoreTask extends RecursiveTask<PriorityQueue<Match>>
+  {
+    /** Default serial version ID. */
+    private static final long serialVersionUID = 1L;
+    
+    /** The names. */
+    private final transient List<String> names;
+    
+    /** The lowercase names. */
+    private final transient NameTable table;
+    
+    /** The lowercase terms of the pattern. */
+    private final char[][] terms;
+    
+    /** The mask of the characters in the terms. */
+    private final long mask;
+    
+    /** The maximum number of matches kept. */
+    private final int max;
+    
+    /** The thread that started the search, which is interrupted to cancel it. */
+    private final transient Thread caller;
+    
+    /** The index of the first name in the range. */
+    private final int from;
+    
+    /** The index after the last name in the range. */
+    private final int to;
+    
+    /**
+     * Constructor.
+     * 
+     * @param pNames the names
+     * @param pTable the lowercase names
+     * @param pTerms the lowercase terms
+     * @param lMask the mask of the characters in the terms
+     * @param nMax the maximum number of matches kept
+     * @param pCaller the thread that started the search
+     * @param nFrom the index of the first name in the range
+     * @param nTo the index after the last name in the range
+     */
+    public ScoreTask(final List<String> pNames, final NameTable pTable,
+                     final char[][] pTerms, final long lMask, final int nMax,
+                     final Thread pCaller, final int nFrom, final int nTo)
+    {
+      names = pNames;
+      table = pTable;
+      terms = pTerms;
+      mask = lMask;
+      max = nMax;
+      caller = pCaller;
+      from = nFrom;
+      to = nTo;
+    }
+    
+    
+    /**
+     * Score the range, or split it in two and merge the best matches.
+     * 
+     * @return the best matches, worst first
+     */
+    @Override
+    protected PriorityQueue<Match> compute()
+    {
+      if ((to - from) > SPLIT_THRESHOLD)
+      {
+        final int mid = (from + to) >>> 1;
+        ScoreTask left = new ScoreTask(names, table, terms, mask, max, caller, from, mid);
+        ScoreTask right = new ScoreTask(names, table, terms, mask, max, caller, mid, to);
+        left.fork();
+        PriorityQueue<Match> heap = right.compute();
+        for (Match match : left.join())
+        {
+          offer(heap, match);
+        }
+        
+        return heap;
+      }
+      
+      PriorityQueue<Match> heap = new PriorityQueue<Match>(Math.min(max, 64) + 1, WORST_FIRST);
+      for (int i = from; i < to; ++i)
+      {
+        if ((((i - from) & CANCEL_MASK) == 0) && caller.isInterrupted())
+        {
+          break;
+        }
+        
+        // Skip names missing a character of the pattern without scoring them
+        if ((table != null) && !table.hasChars(i, mask))
+        {
+          continue;
+        }
+        
+        final String name = names.get(i);
+        final int score = score(name, terms);
+        if ((score != NO_MATCH) && ((heap.size() < max)
+            || (Match.compare(score, name, i, heap.peek()) < 0)))
+        {
+          offer(heap, new Match(name, i, score));
+        }
+      }
+      
+      return heap;
+    }
+    
+    
+    /**
+     * Add a match to a heap, dropping the worst match if the heap is full.
+     * 
+     * @param heap the heap of the best matches
+     * @param match the match
+     */
+    private void offer(final PriorityQueue<Match> heap, final Match match)
+    {
+      if (heap.size() < max)
+      {
+        heap.add(match);
+      }
+      else if (match.compareTo(heap.peek()) < 0)
+      {
+        heap.poll();
+        heap.add(match);
+      }
+    }
+  }
+  
+  
+  /**
+   * One matching name.  The best match sorts first: the highest score,
+   * then the shortest name, then the earliest in the list.  The fields
+   * are read by ListFormatter.
+   */
+  public static final class Match implements Comparable<Match>
+  {
+    /** The name. */
+    private final String name;
+    
+    /** The index of the name in the list. */
+    private final int index;
+    
+    /** The score. */
+    private final int score;
+    
+    /**
+     * Constructor.
+     * 
+     * @param sName the name
+     * @param nIndex the index of the name in the list
+     * @param nScore the score
+     */
+    public Match(final String sName, final int nIndex, final int nScore)
+    {
+      name = sName;
+      index = nIndex;
+      score = nScore;
+    }
+    
+    
+    /**
+     * Compare a possible match with a match, before creating it.
+     * 
+     * @param score the score of the possible match
+     * @param name the name of the possible match
+     * @param index the index of the possible match
+     * @param match the match to compare with
+     * @return less than zero if the possible match is better
+     */
+    private static int compare(final int score, final String name, final int index,
+                               final Match match)
+    {
+      if (score != match.score)
+      {
+        return ((score > match.score) ? -1 : 1);
+      }
+      else if (name.length() != match.name.length())
+      {
+        return ((name.length() < match.name.length()) ? -1 : 1);
+      }
+      
+      return ((index < match.index) ? -1 : ((index == match.index) ? 0 : 1));
+    }
+    
+    
+    /**
+     * Compare this match with another.
+     * 
+     * @param match the other match
+     * @return less than zero if this match is better
+     */
+    @Override
+    public int compareTo(final Match match)
+    {
+      return compare(score, name, index, match);
+    }
+    
+    
+    /**
+     * Return the name.
+     * 
+     * @return the name
+     */
+    public String getName()
+    {
+      return name;
+    }
+    
+    
+    /**
+     * Return the index of the name in the list.
+     * 
+     * @return the index
+     */
+    public int getIndex()
+    {
+      return index;
+    }
+    
+    
+    /**
+     * Return the score.
+     * 
+     * @return the score
+     */
+    public int getScore()
+    {
+      return score;
+    }
+  }
+}
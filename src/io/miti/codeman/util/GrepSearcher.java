@@ -0,0 +1,569 @@
+package io.miti.codeman.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * Finds the files that can contain a substring or regular expression,
+ * using the trigram field of the index.  The caller checks the text of
+ * each candidate with the compiled pattern.
+ */
+public final class GrepSearcher
+{
+  /** The maximum number of trigrams in a candidate query. */
+  private static final int MAX_GRAMS = 64;
+  
+  /** The fields loaded for each candidate. */
+  private static final Set<String> PATH_FIELD =
+      Collections.singleton(ZipIndexer.FIELD_PATH);
+  
+  
+  /**
+   * Default constructor.
+   */
+  private GrepSearcher()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Compile the search pattern.
+   * 
+   * @param text the literal string or regular expression
+   * @param regex whether the text is a regular expression
+   * @return the compiled pattern
+   * @throws java.util.regex.PatternSyntaxException if the regex is invalid
+   */
+  public static Pattern compile(final String text, final boolean regex)
+  {
+    if (regex)
+    {
+      return Pattern.compile(text, Pattern.MULTILINE);
+    }
+    
+    return Pattern.compile(text, Pattern.LITERAL);
+  }
+  
+  
+  /**
+   * Return the literal strings that every match must contain.  For a
+   * regular expression this is a conservative subset: the runs of
+   * plain characters at the top level of the expression that are not
+   * made optional by a quantifier.  An alternation at the top level
+   * means nothing is required, and so does an escape that cannot be
+   * parsed, since the extraction can no longer tell where it is.
+   * <p>
+   * For example:
+   * <pre>
+   *   foo\.bar         "foo.bar"
+   *   abc\x41def        "abc", "def"     (\x41 is one character)
+   *   abc&#92;u00e9def      "abc", "def"
+   *   abc\0101def       "abc", "def"     (octal escape)
+   *   abc\cAdef         "abc", "def"     (control character)
+   *   abc\p{Alpha}def   "abc", "def"     (character property)
+   *   (?&lt;n&gt;abc)\k&lt;n&gt;xyz   "xyz"            (named back reference)
+   *   abc\Q(+)\Edef     "abc(+)def"      (quoted text is literal)
+   *   abc\Qx.y          "abcx.y"         (the quote runs to the end)
+   *   abc\xZZdef        nothing          (unparsable escape)
+   * </pre>
+   * @param text the literal string or regular expression
+   * @param regex whether the text is a regular expression
+   * @return the list of required literals
+   */
+  public static List<String> getRequiredLiterals(final String text, final boolean regex)
+  {
+    List<String> literals = new ArrayList<String>(4);
+    if (!regex)
+    {
+      literals.add(text);
+      return literals;
+    }
+    
+    StringBuilder sb = new StringBuilder(text.length());
+    int depth = 0;
+    final int len = text.length();
+    int i = 0;
+    while (i < len)
+    {
+      final char ch = text.charAt(i);
+      if ((ch == '\\') && ((i + 1) < len) && (text.charAt(i + 1) == 'Q'))
+      {
+        // Everything up to \E (or the end) is literal text
+        final int end = getQuoteEnd(text, i);
+        if (depth == 0)
+        {
+          sb.append(text, i + 2, end);
+        }
+        i = Math.min(len, end + 2);
+      }
+      else if (ch == '\\')
+      {
+        // An escaped punctuation character is a literal; other escapes
+        // (\d, \x41, \p{Alpha} and so on) are classes, single
+        // characters or back references
+        final int end = skipEscape(text, i);
+        if (end < 0)
+        {
+          literals.clear();
+          return literals;
+        }
+        
+        final char next = text.charAt(i + 1);
+        if ((depth == 0) && !Character.isLetterOrDigit(next))
+        {
+          sb.append(next);
+        }
+        else
+        {
+          flush(sb, literals);
+        }
+        i = end;
+      }
+      else if (ch == '[')
+      {
+        // Skip the character class
+        flush(sb, literals);
+        i = skipClass(text, i);
+        if (i < 0)
+        {
+          literals.clear();
+          return literals;
+        }
+      }
+      else if (ch == '(')
+      {
+        flush(sb, literals);
+        ++depth;
+        ++i;
+      }
+      else if (ch == ')')
+      {
+        depth = Math.max(0, depth - 1);
+        ++i;
+      }
+      else if (ch == '|')
+      {
+        if (depth == 0)
+        {
+          // Any branch can match, so nothing is required
+          literals.clear();
+          return literals;
+        }
+        ++i;
+      }
+      else if ((ch == '*') || (ch == '?') || (ch == '{'))
+      {
+        // The previous character is optional or repeated
+        if (sb.length() > 0)
+        {
+          sb.setLength(sb.length() - 1);
+        }
+        flush(sb, literals);
+        i = (ch == '{') ? Math.max(i + 1, text.indexOf('}', i) + 1) : (i + 1);
+      }
+      else if ((ch == '.') || (ch == '^') || (ch == '$') || (ch == '+'))
+      {
+        flush(sb, literals);
+        ++i;
+      }
+      else
+      {
+        if (depth == 0)
+        {
+          sb.append(ch);
+        }
+        ++i;
+      }
+    }
+    
+    flush(sb, literals);
+    return literals;
+  }
+  
+  
+  /**
+   * Return the position after a character class.
+   * 
+   * @param text the regular expression
+   * @param start the position of the opening bracket
+   * @return the position after the closing bracket, or -1 if the
+   *         class has an escape that cannot be parsed
+   */
+  private static int skipClass(final String text, final int start)
+  {
+    final int len = text.length();
+    int i = start + 1;
+    if ((i < len) && (text.charAt(i) == '^'))
+    {
+      ++i;
+    }
+    if ((i < len) && (text.charAt(i) == ']'))
+    {
+      ++i;
+    }
+    
+    while (i < len)
+    {
+      final char ch = text.charAt(i);
+      if ((ch == '\\') && ((i + 1) < len) && (text.charAt(i + 1) == 'Q'))
+      {
+        i = Math.min(len, getQuoteEnd(text, i) + 2);
+      }
+      else if (ch == '\\')
+      {
+        i = skipEscape(text, i);
+        if (i < 0)
+        {
+          return -1;
+        }
+      }
+      else if (ch == ']')
+      {
+        return i + 1;
+      }
+      else
+      {
+        ++i;
+      }
+    }
+    
+    return len;
+  }
+  
+  
+  /**
+   * Return the position of the \E that ends a quote, or the end of
+   * the text if the quote is not closed.
+   * 
+   * @param text the regular expression
+   * @param start the position of the backslash before the Q
+   * @return the position of the backslash before the E
+   */
+  private static int getQuoteEnd(final String text, final int start)
+  {
+    final int end = text.indexOf("\\E", start + 2);
+    return (end < 0) ? text.length() : end;
+  }
+  
+  
+  /**
+   * Return the position after an escape sequence other than a quote.
+   * 
+   * @param text the regular expression
+   * @param start the position of the backslash
+   * @return the position after the escape, or -1 if it cannot be parsed
+   */
+  private static int skipEscape(final String text, final int start)
+  {
+    final int len = text.length();
+    int i = start + 1;
+    if (i >= len)
+    {
+      return -1;
+    }
+    
+    final char ch = text.charAt(i++);
+    if (ch == 'x')
+    {
+      // Two hex digits, or any number of them in braces
+      if ((i < len) && (text.charAt(i) == '{'))
+      {
+        final int end = text.indexOf('}', i);
+        return ((end > i + 1) && isHex(text, i + 1, end)) ? (end + 1) : -1;
+      }
+      return isHex(text, i, i + 2) ? (i + 2) : -1;
+    }
+    else if (ch == 'u')
+    {
+      // Four hex digits
+      return isHex(text, i, i + 4) ? (i + 4) : -1;
+    }
+    else if (ch == '0')
+    {
+      // One to three octal digits, the first of three at most 3
+      final int max = ((i < len) && (text.charAt(i) <= '3')) ? 3 : 2;
+      final int first = i;
+      while ((i < len) && ((i - first) < max)
+             && (text.charAt(i) >= '0') && (text.charAt(i) <= '7'))
+      {
+        ++i;
+      }
+      return (i > first) ? i : -1;
+    }
+    else if (ch == 'c')
+    {
+      // A control character
+      return (i < len) ? (i + 1) : -1;
+    }
+    else if ((ch == 'p') || (ch == 'P'))
+    {
+      // A one-letter property, or a property name in braces
+      if ((i < len) && (text.charAt(i) == '{'))
+      {
+        final int end = text.indexOf('}', i);
+        return (end > i + 1) ? (end + 1) : -1;
+      }
+      return ((i < len) && Character.isLetter(text.charAt(i))) ? (i + 1) : -1;
+    }
+    else if (ch == 'k')
+    {
+      // A named back reference in angle brackets
+      if ((i < len) && (text.charAt(i) == '<'))
+      {
+        final int end = text.indexOf('>', i);
+        return (end > i + 1) ? (end + 1) : -1;
+      }
+      return -1;
+    }
+    else if ((ch >= '1') && (ch <= '9'))
+    {
+      // A numbered back reference takes all of the following digits
+      while ((i < len) && Character.isDigit(text.charAt(i)))
+      {
+        ++i;
+      }
+    }
+    
+    return i;
+  }
+  
+  
+  /**
+   * Return whether a range of the text is all hexadecimal digits.
+   * 
+   * @param text the text
+   * @param start the start of the range
+   * @param end the end of the range (exclusive)
+   * @return whether the range exists and is all hexadecimal digits
+   */
+  private static boolean isHex(final String text, final int start, final int end)
+  {
+    if (end > text.length())
+    {
+      return false;
+    }
+    
+    for (int i = start; i < end; ++i)
+    {
+      if (Character.digit(text.charAt(i), 16) < 0)
+      {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  
+  /**
+   * Save the current literal, if it is long enough to have a trigram.
+   * 
+   * @param sb the current literal
+   * @param literals the list of literals
+   */
+  private static void flush(final StringBuilder sb, final List<String> literals)
+  {
+    if (sb.length() >= TrigramAnalyzer.GRAM_SIZE)
+    {
+      literals.add(sb.toString());
+    }
+    sb.setLength(0);
+  }
+  
+  
+  /**
+   * Build the query for the files containing every trigram of the
+   * literals.  Long literals are sampled so the query stays small.
+   * Without a trigram, every file whose text is indexed is a candidate.
+   * 
+   * @param literals the required literals
+   * @return the candidate query
+   */
+  public static Query buildGramQuery(final List<String> literals)
+  {
+    // Collect the distinct trigrams
+    Set<String> grams = new LinkedHashSet<String>(32);
+    for (String literal : literals)
+    {
+      final int last = literal.length() - TrigramAnalyzer.GRAM_SIZE;
+      for (int i = 0; i <= last; ++i)
+      {
+        grams.add(TrigramAnalyzer.getGram(literal, i));
+      }
+    }
+    
+    if (grams.isEmpty())
+    {
+      // Any file with indexed text may match, but not the skipped files
+      return new TermQuery(new Term(ZipIndexer.FIELD_HAS_TEXT, ZipIndexer.HAS_TEXT));
+    }
+    
+    // Keep an even sample of the trigrams if there are too many
+    final List<String> list = new ArrayList<String>(grams);
+    final int step = Math.max(1, (list.size() + MAX_GRAMS - 1) / MAX_GRAMS);
+    BooleanQuery query = new BooleanQuery(true);
+    for (int i = 0; i < list.size(); i += step)
+    {
+      query.add(new TermQuery(new Term(ZipIndexer.FIELD_GRAMS, list.get(i))),
+                BooleanClause.Occur.MUST);
+    }
+    
+    return query;
+  }
+  
+  
+  /**
+   * Find the names of the files that match the candidate query.
+   * 
+   * @param handle the handle on the index
+   * @param query the candidate query
+   * @return the names of the candidate files, in index order
+   */
+  public static List<String> findCandidates(final IndexHandle handle, final Query query)
+  {
+    return findCandidates(handle, query, null);
+  }
+  
+  
+  /**
+   * Find the names of the files that match the candidate query and
+   * pass a filter on their names.
+   * 
+   * @param handle the handle on the index
+   * @param query the candidate query
+   * @param filter the filter, or null for none
+   * @return the names of the candidate files, in index order
+   */
+  public static List<String> findCandidates(final IndexHandle handle, final Query query,
+                                            final Filter filter)
+  {
+    List<String> names = new ArrayList<String>(100);
+    IndexSearcher searcher = handle.acquire();
+    try
+    {
+      final DocIdCollector collector =
+          new DocIdCollector(searcher.getIndexReader().maxDoc());
+      searcher.search(query, filter, collector);
+      final DocIdSetIterator iter = collector.docIds.iterator();
+      int docId = 0;
+      while ((docId = iter.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS)
+      {
+        Document doc = searcher.doc(docId, PATH_FIELD);
+        final String name = doc.get(ZipIndexer.FIELD_PATH);
+        if (name != null)
+        {
+          names.add(name);
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      Logger.error(e);
+    }
+    finally
+    {
+      handle.release(searcher);
+    }
+    
+    return names;
+  }
+  
+  
+  /**
+   * Count the matches of the pattern in the text.
+   * 
+   * @param text the file text
+   * @param pattern the compiled pattern
+   * @return the number of matches
+   */
+  public static int countMatches(final String text, final Pattern pattern)
+  {
+    int count = 0;
+    Matcher matcher = pattern.matcher(text);
+    while (matcher.find())
+    {
+      ++count;
+    }
+    
+    return count;
+  }
+  
+  
+  /**
+   * Collects the IDs of the matching documents, without scoring.
+   */
+  private static final class DocIdCollector extends Collector
+  {
+    /**
+     * The matching document IDs.  A candidate query can match most of
+     * the index, so a bit set is smaller than a list of the IDs, and
+     * it returns them in index order even when they are collected out
+     * of order.
+     */
+    private final FixedBitSet docIds;
+    
+    /** The first document ID in the current segment. */
+    private int docBase = 0;
+    
+    
+    /**
+     * Constructor.
+     * 
+     * @param maxDoc the number of documents in the index
+     */
+    public DocIdCollector(final int maxDoc)
+    {
+      super();
+      docIds = new FixedBitSet(maxDoc);
+    }
+    
+    
+    @Override
+    public void setScorer(final Scorer scorer)
+    {
+      // Scores are not used
+    }
+    
+    
+    @Override
+    public void collect(final int doc)
+    {
+      docIds.set(docBase + doc);
+    }
+    
+    
+    @Override
+    public void setNextReader(final AtomicReaderContext context)
+    {
+      docBase = context.docBase;
+    }
+    
+    
+    @Override
+    public boolean acceptsDocsOutOfOrder()
+    {
+      return true;
+    }
+  }
+}
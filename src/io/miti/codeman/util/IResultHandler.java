@@ -0,0 +1,16 @@
+package io.miti.codeman.util;
+
+/**
+ * Interface for a class to handle the files matched by a streaming
+ * search, as they are found.
+ */
+public interface IResultHandler
+{
+  /**
+   * Process the path of a file that matched the search.
+   * 
+   * @param path the path of the file
+   * @return whether to continue the search
+   */
+  boolean processResult(final String path);
+}
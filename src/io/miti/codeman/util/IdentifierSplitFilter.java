@@ -0,0 +1,201 @@
+package io.miti.codeman.util;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+
+/**
+ * A token filter that splits source code identifiers into their parts.
+ * Each token is passed through unchanged, followed by its camelCase,
+ * snake_case and letter/digit parts at the same position, so
+ * getUserAccountId also produces get, User, Account and Id.  Since the
+ * parts do not advance the position, phrase queries across identifiers
+ * still work.
+ */
+public final class IdentifierSplitFilter extends TokenFilter
+{
+  /** The term text. */
+  private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+  
+  /** The term offsets. */
+  private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+  
+  /** The position increment. */
+  private final PositionIncrementAttribute posIncAtt =
+      addAttribute(PositionIncrementAttribute.class);
+  
+  /** A copy of the current token. */
+  private char[] token = new char[64];
+  
+  /** The length of the current token. */
+  private int tokenLength = 0;
+  
+  /** The start offset of the current token. */
+  private int tokenStart = 0;
+  
+  /** The start and end of each part in the current token, in pairs. */
+  private int[] parts = new int[32];
+  
+  /** The number of values in parts. */
+  private int numParts = 0;
+  
+  /** The index of the next part to emit. */
+  private int nextPart = 0;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param input the input token stream
+   */
+  public IdentifierSplitFilter(final TokenStream input)
+  {
+    super(input);
+  }
+  
+  
+  @Override
+  public boolean incrementToken() throws IOException
+  {
+    // Emit the next part of the current token
+    if (nextPart < numParts)
+    {
+      final int start = parts[nextPart];
+      final int end = parts[nextPart + 1];
+      nextPart += 2;
+      
+      clearAttributes();
+      termAtt.copyBuffer(token, start, end - start);
+      offsetAtt.setOffset(tokenStart + start, tokenStart + end);
+      posIncAtt.setPositionIncrement(0);
+      return true;
+    }
+    
+    if (!input.incrementToken())
+    {
+      return false;
+    }
+    
+    // Save the token and find its parts
+    tokenLength = termAtt.length();
+    if (token.length < tokenLength)
+    {
+      token = new char[tokenLength];
+    }
+    System.arraycopy(termAtt.buffer(), 0, token, 0, tokenLength);
+    tokenStart = offsetAtt.startOffset();
+    findParts();
+    
+    return true;
+  }
+  
+  
+  /**
+   * Find the parts of the current token.  No parts are saved if the
+   * token is a single part.
+   */
+  private void findParts()
+  {
+    numParts = 0;
+    nextPart = 0;
+    
+    int start = -1;
+    for (int i = 0; i < tokenLength; ++i)
+    {
+      final char ch = token[i];
+      if (!Character.isLetterOrDigit(ch))
+      {
+        // A separator, such as '_' or '$', ends the current part
+        if (start >= 0)
+        {
+          addPart(start, i);
+          start = -1;
+        }
+      }
+      else if (start < 0)
+      {
+        start = i;
+      }
+      else if (isBoundary(i))
+      {
+        addPart(start, i);
+        start = i;
+      }
+    }
+    
+    if (start >= 0)
+    {
+      addPart(start, tokenLength);
+    }
+    
+    // If the only part is the whole token, there is nothing to add
+    if ((numParts == 2) && (parts[0] == 0) && (parts[1] == tokenLength))
+    {
+      numParts = 0;
+    }
+  }
+  
+  
+  /**
+   * Return whether a new part starts at a position in the token.  This
+   * is true for a lower to upper case change (userAccount), the last
+   * capital in a run of capitals followed by a lower case letter
+   * (HTTPServer), and a change between letters and digits (utf8).
+   * 
+   * @param i the position in the token (greater than zero)
+   * @return whether a part starts at i
+   */
+  private boolean isBoundary(final int i)
+  {
+    final char prev = token[i - 1];
+    final char ch = token[i];
+    if (Character.isDigit(prev) != Character.isDigit(ch))
+    {
+      return true;
+    }
+    else if (Character.isLowerCase(prev) && Character.isUpperCase(ch))
+    {
+      return true;
+    }
+    else if (Character.isUpperCase(prev) && Character.isUpperCase(ch)
+             && ((i + 1) < tokenLength) && Character.isLowerCase(token[i + 1]))
+    {
+      return true;
+    }
+    
+    return false;
+  }
+  
+  
+  /**
+   * Save a part of the current token.
+   * 
+   * @param start the start of the part
+   * @param end the end of the part
+   */
+  private void addPart(final int start, final int end)
+  {
+    if ((numParts + 2) > parts.length)
+    {
+      int[] larger = new int[parts.length * 2];
+      System.arraycopy(parts, 0, larger, 0, numParts);
+      parts = larger;
+    }
+    
+    parts[numParts++] = start;
+    parts[numParts++] = end;
+  }
+  
+  
+  @Override
+  public void reset() throws IOException
+  {
+    super.reset();
+    numParts = 0;
+    nextPart = 0;
+  }
+}
@@ -0,0 +1,154 @@
+package io.miti.codeman.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+
+/**
+ * A long-lived handle on one Lucene index.  The searcher is shared
+ * across threads, and is only reopened when the index changes.
+ * Callers must release every searcher they acquire.
+ */
+public final class IndexHandle
+{
+  /** The Lucene directory for the index. */
+  private Directory directory = null;
+  
+  /** The manager for the shared searcher. */
+  private SearcherManager manager = null;
+  
+  
+  /**
+   * Open a handle on an index.
+   * 
+   * @param dir the index directory
+   * @param settings the settings for the installed directory
+   * @throws IOException if the index cannot be opened
+   */
+  public IndexHandle(final File dir, final IndexSettings settings) throws IOException
+  {
+    directory = settings.openDirectory(dir);
+    try
+    {
+      manager = new SearcherManager(directory, null);
+    }
+    catch (IOException e)
+    {
+      directory.close();
+      throw e;
+    }
+  }
+  
+  
+  /**
+   * Open a handle on an index, if the index exists.
+   * 
+   * @param dir the index directory
+   * @param settings the settings for the installed directory
+   * @return the handle, or null if there is no index in the directory
+   */
+  public static IndexHandle open(final File dir, final IndexSettings settings)
+  {
+    if ((dir == null) || !dir.isDirectory())
+    {
+      return null;
+    }
+    
+    IndexHandle handle = null;
+    try
+    {
+      Directory probe = settings.openDirectory(dir);
+      final boolean exists = DirectoryReader.indexExists(probe);
+      probe.close();
+      
+      if (exists)
+      {
+        handle = new IndexHandle(dir, settings);
+      }
+    }
+    catch (IOException e)
+    {
+      Logger.error(e);
+    }
+    
+    return handle;
+  }
+  
+  
+  /**
+   * Acquire the current searcher.  The searcher must be passed
+   * to release() when the caller is done with it.
+   * 
+   * @return the current searcher
+   */
+  public IndexSearcher acquire()
+  {
+    return manager.acquire();
+  }
+  
+  
+  /**
+   * Release a searcher returned by acquire().
+   * 
+   * @param searcher the searcher
+   */
+  public void release(final IndexSearcher searcher)
+  {
+    if (searcher == null)
+    {
+      return;
+    }
+    
+    try
+    {
+      manager.release(searcher);
+    }
+    catch (IOException e)
+    {
+      Logger.error(e);
+    }
+  }
+  
+  
+  /**
+   * Reopen the searcher if the index has changed.
+   * 
+   * @return whether the searcher is current
+   */
+  public boolean refresh()
+  {
+    try
+    {
+      manager.maybeRefreshBlocking();
+      return true;
+    }
+    catch (IOException e)
+    {
+      Logger.error(e);
+    }
+    
+    return false;
+  }
+  
+  
+  /**
+   * Close the handle.  Searchers that are still acquired stay
+   * usable until they are released.
+   */
+  public void close()
+  {
+    try
+    {
+      manager.close();
+      directory.close();
+    }
+    catch (IOException e)
+    {
+      Logger.error(e);
+    }
+  }
+}
@@ -0,0 +1,581 @@
+package io.miti.codeman.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.SimpleFSDirectory;
+import org.apache.lucene.util.Constants;
+
+/**
+ * The index settings for one installed directory.  These are
+ * stored in the directory's properties file (codezip.txt).
+ */
+public final class IndexSettings
+{
+  /** Pick the best directory implementation for this JVM. */
+  public static final String DIR_AUTO = "auto";
+  
+  /** Use memory-mapped I/O. */
+  public static final String DIR_MMAP = "mmap";
+  
+  /** Use positional reads through NIO file channels. */
+  public static final String DIR_NIO = "nio";
+  
+  /** Use a synchronized RandomAccessFile. */
+  public static final String DIR_SIMPLE = "simple";
+  
+  /** The property for the directory mode. */
+  private static final String PROP_DIR_MODE = "index.directory";
+  
+  /** The property for whether the file text is stored in the index. */
+  private static final String PROP_STORE_TEXT = "index.text.store";
+  
+  /** The property for whether term vectors are kept for the file text. */
+  private static final String PROP_TERM_VECTORS = "index.text.vectors";
+  
+  /** The property for the charset of the files in the zip. */
+  private static final String PROP_CHARSET = "index.charset";
+  
+  /** The charset name that means to detect the charset of each file. */
+  public static final String CHARSET_AUTO = "auto";
+  
+  /** The property for the largest file whose text is indexed. */
+  private static final String PROP_MAX_SIZE = "index.max.size";
+  
+  /** The property for the extensions to index.  Empty means all extensions. */
+  private static final String PROP_EXT_ALLOW = "index.extensions.allow";
+  
+  /** The property for the extensions whose text is never indexed. */
+  private static final String PROP_EXT_DENY = "index.extensions.deny";
+  
+  /** The property for what to do with files whose text is not indexed. */
+  private static final String PROP_SKIPPED = "index.skipped";
+  
+  /** The property for whether to read the archives inside the zip file. */
+  private static final String PROP_NESTED = "index.nested";
+  
+  /** Index only the path of a skipped file, so it can still be found by name. */
+  public static final String SKIPPED_PATH = "path";
+  
+  /** Leave skipped files out of the index. */
+  public static final String SKIPPED_NONE = "none";
+  
+  /** The default largest file whose text is indexed. */
+  private static final long DEFAULT_MAX_SIZE = 10L * 1024L * 1024L;
+  
+  /** The extensions of binary files that are not indexed by default. */
+  private static final String DEFAULT_DENY = "class,jar,war,ear,zip,gz,tgz,bz2,7z,"
+      + "png,gif,jpg,jpeg,bmp,ico,tif,tiff,pdf,doc,docx,xls,xlsx,ppt,pptx,"
+      + "so,dll,exe,dylib,lib,o,a,obj,bin,dat,ser,jks,keystore,ttf,otf,woff,woff2,eot";
+  
+  /** How the index directory is read and written. */
+  private String directoryMode = DIR_AUTO;
+  
+  /**
+   * Whether the file text is stored in the index.  By default it is
+   * not, since the text is read from the zip file when needed.
+   */
+  private boolean storeText = false;
+  
+  /** Whether term vectors with positions and offsets are kept for the file text. */
+  private boolean termVectors = false;
+  
+  /** The charset of the files in the zip, or null to detect it. */
+  private Charset charset = null;
+  
+  /** The largest file whose text is indexed, or zero for no limit. */
+  private long maxSize = DEFAULT_MAX_SIZE;
+  
+  /** The extensions to index.  If empty, every extension not denied is indexed. */
+  private Set<String> allowedExtensions = parseExtensions(null);
+  
+  /** The extensions whose text is not indexed. */
+  private Set<String> deniedExtensions = parseExtensions(DEFAULT_DENY);
+  
+  /** What to do with files whose text is not indexed. */
+  private String skippedMode = SKIPPED_PATH;
+  
+  /** Whether to read the entries of jar, war, ear and zip files inside the zip. */
+  private boolean nested = true;
+  
+  
+  /**
+   * Default constructor.
+   */
+  public IndexSettings()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Load the settings from the properties of an installed directory.
+   * 
+   * @param props the properties (may be null)
+   * @return the settings
+   */
+  public static IndexSettings load(final Properties props)
+  {
+    IndexSettings settings = new IndexSettings();
+    if (props == null)
+    {
+      return settings;
+    }
+    
+    settings.setDirectoryMode(props.getProperty(PROP_DIR_MODE));
+    settings.storeText = "1".equals(props.getProperty(PROP_STORE_TEXT));
+    settings.termVectors = "1".equals(props.getProperty(PROP_TERM_VECTORS));
+    settings.setCharsetName(props.getProperty(PROP_CHARSET));
+    settings.setSkippedMode(props.getProperty(PROP_SKIPPED));
+    settings.nested = !"0".equals(props.getProperty(PROP_NESTED));
+    settings.allowedExtensions = parseExtensions(props.getProperty(PROP_EXT_ALLOW));
+    settings.deniedExtensions = parseExtensions(
+        props.getProperty(PROP_EXT_DENY, DEFAULT_DENY));
+    
+    final String size = props.getProperty(PROP_MAX_SIZE);
+    if ((size != null) && (size.trim().length() > 0))
+    {
+      try
+      {
+        settings.maxSize = Math.max(0L, Long.parseLong(size.trim()));
+      }
+      catch (NumberFormatException nfe)
+      {
+        Logger.error("Invalid " + PROP_MAX_SIZE + " value: " + size);
+      }
+    }
+    
+    return settings;
+  }
+  
+  
+  /**
+   * Save the settings into the properties of an installed directory.
+   * 
+   * @param props the properties
+   */
+  public void save(final Properties props)
+  {
+    props.put(PROP_DIR_MODE, directoryMode);
+    props.put(PROP_STORE_TEXT, storeText ? "1" : "0");
+    props.put(PROP_TERM_VECTORS, termVectors ? "1" : "0");
+    props.put(PROP_CHARSET, getCharsetName());
+    props.put(PROP_MAX_SIZE, Long.toString(maxSize));
+    props.put(PROP_EXT_ALLOW, getAllowedExtensions());
+    props.put(PROP_EXT_DENY, getDeniedExtensions());
+    props.put(PROP_SKIPPED, skippedMode);
+    props.put(PROP_NESTED, nested ? "1" : "0");
+  }
+  
+  
+  /**
+   * Get the directory mode.
+   * 
+   * @return the directory mode
+   */
+  public String getDirectoryMode()
+  {
+    return directoryMode;
+  }
+  
+  
+  /**
+   * Set the directory mode.  Unknown values are treated as auto.
+   * 
+   * @param mode the directory mode
+   */
+  public void setDirectoryMode(final String mode)
+  {
+    if (mode == null)
+    {
+      directoryMode = DIR_AUTO;
+      return;
+    }
+    
+    final String value = mode.trim().toLowerCase();
+    if (value.equals(DIR_MMAP) || value.equals(DIR_NIO) || value.equals(DIR_SIMPLE))
+    {
+      directoryMode = value;
+    }
+    else
+    {
+      directoryMode = DIR_AUTO;
+    }
+  }
+  
+  
+  /**
+   * Return whether the file text is stored in the index.
+   * 
+   * @return whether the text is stored
+   */
+  public boolean isStoreText()
+  {
+    return storeText;
+  }
+  
+  
+  /**
+   * Set whether the file text is stored in the index.
+   * 
+   * @param bStore whether to store the text
+   */
+  public void setStoreText(final boolean bStore)
+  {
+    storeText = bStore;
+  }
+  
+  
+  /**
+   * Return whether term vectors are kept for the file text.
+   * 
+   * @return whether term vectors are kept
+   */
+  public boolean isTermVectors()
+  {
+    return termVectors;
+  }
+  
+  
+  /**
+   * Set whether term vectors, with positions and offsets, are kept
+   * for the file text.  These are only needed for highlighting.
+   * 
+   * @param bVectors whether to keep term vectors
+   */
+  public void setTermVectors(final boolean bVectors)
+  {
+    termVectors = bVectors;
+  }
+  
+  
+  /**
+   * Return the charset of the files in the zip.
+   * 
+   * @return the charset, or null if it is detected for each file
+   */
+  public Charset getCharset()
+  {
+    return charset;
+  }
+  
+  
+  /**
+   * Return the name of the charset of the files in the zip.
+   * 
+   * @return the charset name, or auto if it is detected for each file
+   */
+  public String getCharsetName()
+  {
+    return ((charset == null) ? CHARSET_AUTO : charset.name());
+  }
+  
+  
+  /**
+   * Set the charset of the files in the zip.  Auto, or an unknown
+   * charset, means to detect the charset of each file.
+   * 
+   * @param name the charset name
+   */
+  public void setCharsetName(final String name)
+  {
+    charset = null;
+    if ((name == null) || name.trim().equalsIgnoreCase(CHARSET_AUTO))
+    {
+      return;
+    }
+    
+    try
+    {
+      charset = Charset.forName(name.trim());
+    }
+    catch (IllegalCharsetNameException e)
+    {
+      Logger.error("Invalid charset name: " + name);
+    }
+    catch (UnsupportedCharsetException e)
+    {
+      Logger.error("Unsupported charset: " + name);
+    }
+  }
+  
+  
+  /**
+   * Return the largest file whose text is indexed.
+   * 
+   * @return the size in bytes, or zero for no limit
+   */
+  public long getMaxSize()
+  {
+    return maxSize;
+  }
+  
+  
+  /**
+   * Set the largest file whose text is indexed.
+   * 
+   * @param lSize the size in bytes, or zero for no limit
+   */
+  public void setMaxSize(final long lSize)
+  {
+    maxSize = Math.max(0L, lSize);
+  }
+  
+  
+  /**
+   * Return the extensions to index, separated by commas.
+   * 
+   * @return the allowed extensions (empty for all)
+   */
+  public String getAllowedExtensions()
+  {
+    return joinExtensions(allowedExtensions);
+  }
+  
+  
+  /**
+   * Set the extensions to index.
+   * 
+   * @param list the extensions, separated by commas (empty for all)
+   */
+  public void setAllowedExtensions(final String list)
+  {
+    allowedExtensions = parseExtensions(list);
+  }
+  
+  
+  /**
+   * Return the extensions whose text is not indexed, separated by commas.
+   * 
+   * @return the denied extensions
+   */
+  public String getDeniedExtensions()
+  {
+    return joinExtensions(deniedExtensions);
+  }
+  
+  
+  /**
+   * Set the extensions whose text is not indexed.
+   * 
+   * @param list the extensions, separated by commas
+   */
+  public void setDeniedExtensions(final String list)
+  {
+    deniedExtensions = parseExtensions(list);
+  }
+  
+  
+  /**
+   * Return whether the text of a file should be indexed, based on the
+   * extension of its name.
+   * 
+   * @param name the name of the file
+   * @return whether the extension is allowed and not denied
+   */
+  public boolean isExtensionIndexed(final String name)
+  {
+    final String file = Utility.getFileNameFromZipEntry(name);
+    final int dot = file.lastIndexOf('.');
+    final String ext = (dot < 0) ? "" : file.substring(dot + 1).toLowerCase();
+    if (deniedExtensions.contains(ext))
+    {
+      return false;
+    }
+    
+    return (allowedExtensions.isEmpty() || allowedExtensions.contains(ext));
+  }
+  
+  
+  /**
+   * Return what to do with files whose text is not indexed.
+   * 
+   * @return the skipped mode (path or none)
+   */
+  public String getSkippedMode()
+  {
+    return skippedMode;
+  }
+  
+  
+  /**
+   * Set what to do with files whose text is not indexed.  Unknown
+   * values are treated as path.
+   * 
+   * @param mode the skipped mode
+   */
+  public void setSkippedMode(final String mode)
+  {
+    if ((mode != null) && mode.trim().equalsIgnoreCase(SKIPPED_NONE))
+    {
+      skippedMode = SKIPPED_NONE;
+    }
+    else
+    {
+      skippedMode = SKIPPED_PATH;
+    }
+  }
+  
+  
+  /**
+   * Return whether the paths of skipped files are indexed.
+   * 
+   * @return whether to index the path of a skipped file
+   */
+  public boolean isIndexSkippedPaths()
+  {
+    return skippedMode.equals(SKIPPED_PATH);
+  }
+  
+  
+  /**
+   * Return whether the entries of archives inside the zip are read.
+   * 
+   * @return whether to read nested archives
+   */
+  public boolean isNested()
+  {
+    return nested;
+  }
+  
+  
+  /**
+   * Set whether the entries of archives inside the zip are read.
+   * 
+   * @param bNested whether to read nested archives
+   */
+  public void setNested(final boolean bNested)
+  {
+    nested = bNested;
+  }
+  
+  
+  /**
+   * Parse a list of extensions separated by commas.
+   * 
+   * @param list the list (may be null)
+   * @return the set of lower-case extensions, without leading dots
+   */
+  private static Set<String> parseExtensions(final String list)
+  {
+    Set<String> exts = new TreeSet<String>();
+    if (list == null)
+    {
+      return exts;
+    }
+    
+    for (String ext : list.split(","))
+    {
+      String value = ext.trim().toLowerCase();
+      while (value.startsWith("."))
+      {
+        value = value.substring(1);
+      }
+      
+      if (value.length() > 0)
+      {
+        exts.add(value);
+      }
+    }
+    
+    return exts;
+  }
+  
+  
+  /**
+   * Join a set of extensions with commas.
+   * 
+   * @param exts the extensions
+   * @return the list as a string
+   */
+  private static String joinExtensions(final Set<String> exts)
+  {
+    StringBuilder sb = new StringBuilder(100);
+    for (String ext : exts)
+    {
+      if (sb.length() > 0)
+      {
+        sb.append(',');
+      }
+      
+      sb.append(ext);
+    }
+    
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Return a description of the settings that decide what goes into
+   * each document.  An index built with a different layout has to be
+   * rebuilt.
+   * 
+   * @return the document layout
+   */
+  public String getLayout()
+  {
+    return "store=" + (storeText ? "1" : "0") + ",vectors=" + (termVectors ? "1" : "0")
+        + ",charset=" + getCharsetName() + ",maxsize=" + maxSize
+        + ",allow=" + getAllowedExtensions() + ",deny=" + getDeniedExtensions()
+        + ",skipped=" + skippedMode + ",nested=" + (nested ? "1" : "0");
+  }
+  
+  
+  /**
+   * Return the directory mode that will be used on this JVM.  Memory
+   * mapping is only used on 64-bit JVMs, since a 32-bit address space
+   * cannot map a large index.  A mode chosen in the settings is used
+   * as is; otherwise NIO is avoided on Windows.
+   * 
+   * @return the effective directory mode
+   */
+  public String getEffectiveDirectoryMode()
+  {
+    if (directoryMode.equals(DIR_MMAP) || directoryMode.equals(DIR_AUTO))
+    {
+      if (Constants.JRE_IS_64BIT)
+      {
+        return DIR_MMAP;
+      }
+    }
+    else if (directoryMode.equals(DIR_SIMPLE) || directoryMode.equals(DIR_NIO))
+    {
+      return directoryMode;
+    }
+    
+    // NIO positional reads are slow on Windows
+    return (Constants.WINDOWS ? DIR_SIMPLE : DIR_NIO);
+  }
+  
+  
+  /**
+   * Open the Lucene directory for an index, using the directory mode.
+   * 
+   * @param dir the index directory
+   * @return the Lucene directory
+   * @throws IOException if the directory cannot be opened
+   */
+  public Directory openDirectory(final File dir) throws IOException
+  {
+    final String mode = getEffectiveDirectoryMode();
+    if (mode.equals(DIR_MMAP))
+    {
+      return new MMapDirectory(dir);
+    }
+    else if (mode.equals(DIR_NIO))
+    {
+      return new NIOFSDirectory(dir);
+    }
+    
+    return new SimpleFSDirectory(dir);
+  }
+}
@@ -0,0 +1,230 @@
+package io.miti.codeman.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.CompoundFileDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+
+/**
+ * The disk space used by an index, broken down into the stored
+ * fields, the term vectors and everything else.  The files inside
+ * compound segment files are counted individually.
+ */
+public final class IndexSizes
+{
+  /** The extensions of the stored field files. */
+  private static final String[] STORED_EXTENSIONS = {"fdt", "fdx"};
+  
+  /** The extensions of the term vector files. */
+  private static final String[] VECTOR_EXTENSIONS = {"tvd", "tvx", "tvf"};
+  
+  /** The total size of the index. */
+  private long totalBytes = 0L;
+  
+  /** The size of the stored fields. */
+  private long storedBytes = 0L;
+  
+  /** The size of the term vectors. */
+  private long vectorBytes = 0L;
+  
+  
+  /**
+   * Default constructor.
+   */
+  private IndexSizes()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Measure an index directory.
+   * 
+   * @param indexDir the index directory
+   * @param settings the settings used to open the directory
+   * @return the sizes, or null if the index cannot be read
+   */
+  public static IndexSizes measure(final File indexDir, final IndexSettings settings)
+  {
+    if ((indexDir == null) || !indexDir.isDirectory())
+    {
+      return null;
+    }
+    
+    IndexSizes sizes = new IndexSizes();
+    Directory dir = null;
+    try
+    {
+      dir = settings.openDirectory(indexDir);
+      for (String name : dir.listAll())
+      {
+        try
+        {
+          sizes.totalBytes += dir.fileLength(name);
+          if (IndexFileNames.matchesExtension(name, IndexFileNames.COMPOUND_FILE_EXTENSION))
+          {
+            sizes.addCompoundFile(dir, name);
+          }
+          else
+          {
+            sizes.addFile(name, dir.fileLength(name));
+          }
+        }
+        catch (IOException e)
+        {
+          // The file was removed by a merge while measuring
+          Logger.debug("Skipping index file " + name + ": " + e.getMessage());
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      Logger.error(e);
+      sizes = null;
+    }
+    finally
+    {
+      if (dir != null)
+      {
+        try
+        {
+          dir.close();
+        }
+        catch (IOException e)
+        {
+          Logger.error(e);
+        }
+      }
+    }
+    
+    return sizes;
+  }
+  
+  
+  /**
+   * Add the sizes of the files inside a compound file.
+   * 
+   * @param dir the index directory
+   * @param name the name of the compound file
+   * @throws IOException if the compound file cannot be read
+   */
+  private void addCompoundFile(final Directory dir, final String name)
+    throws IOException
+  {
+    CompoundFileDirectory cfs = new CompoundFileDirectory(dir, name, IOContext.READ, false);
+    try
+    {
+      for (String inner : cfs.listAll())
+      {
+        addFile(inner, cfs.fileLength(inner));
+      }
+    }
+    finally
+    {
+      cfs.close();
+    }
+  }
+  
+  
+  /**
+   * Add the size of one file to the stored field or term vector totals.
+   * 
+   * @param name the file name
+   * @param length the file size
+   */
+  private void addFile(final String name, final long length)
+  {
+    if (hasExtension(name, STORED_EXTENSIONS))
+    {
+      storedBytes += length;
+    }
+    else if (hasExtension(name, VECTOR_EXTENSIONS))
+    {
+      vectorBytes += length;
+    }
+  }
+  
+  
+  /**
+   * Return whether a file name has one of the extensions.
+   * 
+   * @param name the file name
+   * @param extensions the extensions
+   * @return whether the name matches
+   */
+  private static boolean hasExtension(final String name, final String[] extensions)
+  {
+    for (String ext : extensions)
+    {
+      if (IndexFileNames.matchesExtension(name, ext))
+      {
+        return true;
+      }
+    }
+    
+    return false;
+  }
+  
+  
+  /**
+   * Return the total size of the index.
+   * 
+   * @return the size in bytes
+   */
+  public long getTotalBytes()
+  {
+    return totalBytes;
+  }
+  
+  
+  /**
+   * Return the size of the stored fields.
+   * 
+   * @return the size in bytes
+   */
+  public long getStoredBytes()
+  {
+    return storedBytes;
+  }
+  
+  
+  /**
+   * Return the size of the term vectors.
+   * 
+   * @return the size in bytes
+   */
+  public long getVectorBytes()
+  {
+    return vectorBytes;
+  }
+  
+  
+  /**
+   * Return the size of the index without the stored fields and term
+   * vectors, which is what an index with unstored text needs.
+   * 
+   * @return the size in bytes
+   */
+  public long getPostingsBytes()
+  {
+    return totalBytes - storedBytes - vectorBytes;
+  }
+  
+  
+  /**
+   * Return the sizes as a string.
+   * 
+   * @return this object as a string
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString()
+  {
+    return String.format("Index size: %d bytes; %d bytes of stored fields, "
+        + "%d bytes of term vectors, %d bytes of postings and other data",
+        totalBytes, storedBytes, vectorBytes, getPostingsBytes());
+  }
+}
@@ -0,0 +1,104 @@
+package io.miti.codeman.util;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of ints, stored in a primitive array.  This is used
+ * for long lists of indexes, where a List of Integer would box every
+ * value.
+ */
+public final class IntList
+{
+  /** The values in the list. */
+  private int[] values;
+  
+  /** The number of values in the list. */
+  private int size = 0;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param capacity the initial capacity
+   */
+  public IntList(final int capacity)
+  {
+    values = new int[Math.max(capacity, 1)];
+  }
+  
+  
+  /**
+   * Add a value to the end of the list.
+   * 
+   * @param value the value
+   */
+  public void add(final int value)
+  {
+    if (size == values.length)
+    {
+      values = Arrays.copyOf(values, values.length + (values.length >> 1) + 1);
+    }
+    
+    values[size++] = value;
+  }
+  
+  
+  /**
+   * Return the value at an index.
+   * 
+   * @param index the index
+   * @return the value
+   */
+  public int get(final int index)
+  {
+    if (index >= size)
+    {
+      throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+    }
+    
+    return values[index];
+  }
+  
+  
+  /**
+   * Return the number of values in the list.
+   * 
+   * @return the size of the list
+   */
+  public int size()
+  {
+    return size;
+  }
+  
+  
+  /**
+   * Return whether the list is empty.
+   * 
+   * @return whether there are no values
+   */
+  public boolean isEmpty()
+  {
+    return (size == 0);
+  }
+  
+  
+  /**
+   * Remove every value from the list.
+   */
+  public void clear()
+  {
+    size = 0;
+  }
+  
+  
+  /**
+   * Shrink the array to the number of values, if it is much larger.
+   */
+  public void trim()
+  {
+    if (size < (values.length >> 1))
+    {
+      values = Arrays.copyOf(values, Math.max(size, 1));
+    }
+  }
+}
@@ -0,0 +1,240 @@
+package io.miti.codeman.util;
+
+import java.util.List;
+
+/**
+ * The lowercase names of the files in a zip, packed into one array of
+ * characters with the offset of each name.  The names are lowercased
+ * once when the zip is opened, so filtering the file list compares
+ * characters in place instead of creating a lowercase copy of every
+ * name on every key press.  Each name also has a mask of the characters
+ * in it, so most names that cannot contain a key are skipped without
+ * scanning them.
+ */
+public final class NameTable
+{
+  /** The characters of every name, one after the other. */
+  private final char[] chars;
+  
+  /** The offset of each name in the characters, plus the end of the last name. */
+  private final int[] offsets;
+  
+  /** The mask of the characters in each name, one bit per character modulo 64. */
+  private final long[] masks;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param names the names, in the order of the file list
+   */
+  public NameTable(final List<String> names)
+  {
+    int length = 0;
+    for (String name : names)
+    {
+      length += name.length();
+    }
+    
+    chars = new char[length];
+    offsets = new int[names.size() + 1];
+    masks = new long[names.size()];
+    int pos = 0;
+    int index = 0;
+    for (String name : names)
+    {
+      offsets[index] = pos;
+      final int len = name.length();
+      name.getChars(0, len, chars, pos);
+      for (int i = pos; i < pos + len; ++i)
+      {
+        chars[i] = Character.toLowerCase(chars[i]);
+        masks[index] |= getMask(chars[i]);
+      }
+      pos += len;
+      ++index;
+    }
+    offsets[index] = pos;
+  }
+  
+  
+  /**
+   * Lowercase a string the same way as the names in the table.  A key
+   * lowercased with this method can be passed to contains().
+   * 
+   * @param str the string
+   * @return the lowercase characters
+   */
+  public static char[] toLowerChars(final String str)
+  {
+    final char[] lower = str.toCharArray();
+    for (int i = 0; i < lower.length; ++i)
+    {
+      lower[i] = Character.toLowerCase(lower[i]);
+    }
+    
+    return lower;
+  }
+  
+  
+  /**
+   * Return the mask bit of a character.
+   * 
+   * @param ch the character
+   * @return the mask with the character's bit set
+   */
+  private static long getMask(final char ch)
+  {
+    return (1L << (ch & 63));
+  }
+  
+  
+  /**
+   * Return the mask of the characters in a key.
+   * 
+   * @param key the lowercase characters of the key
+   * @return the mask
+   */
+  private static long getMask(final char[] key)
+  {
+    long mask = 0L;
+    for (char ch : key)
+    {
+      mask |= getMask(ch);
+    }
+    
+    return mask;
+  }
+  
+  
+  /**
+   * Return the number of names in the table.
+   * 
+   * @return the number of names
+   */
+  public int size()
+  {
+    return offsets.length - 1;
+  }
+  
+  
+  /**
+   * Return whether a name contains a key.
+   * 
+   * @param index the index of the name
+   * @param key the lowercase characters of the key
+   * @return whether the key is found in the name
+   */
+  public boolean contains(final int index, final char[] key)
+  {
+    return contains(index, key, getMask(key));
+  }
+  
+  
+  /**
+   * Return whether a name contains a key, given the key's mask.
+   * 
+   * @param index the index of the name
+   * @param key the lowercase characters of the key
+   * @param keyMask the mask of the characters in the key
+   * @return whether the key is found in the name
+   */
+  private boolean contains(final int index, final char[] key, final long keyMask)
+  {
+    // Skip the name if it is missing any character of the key
+    if ((masks[index] & keyMask) != keyMask)
+    {
+      return false;
+    }
+    else if (key.length == 0)
+    {
+      return true;
+    }
+    
+    final int start = offsets[index];
+    final int last = offsets[index + 1] - key.length;
+    final char first = key[0];
+    for (int i = start; i <= last; ++i)
+    {
+      // Look for the first character before comparing the rest
+      if (chars[i] != first)
+      {
+        continue;
+      }
+      
+      int j = 1;
+      while ((j < key.length) && (chars[i + j] == key[j]))
+      {
+        ++j;
+      }
+      
+      if (j == key.length)
+      {
+        return true;
+      }
+    }
+    
+    return false;
+  }
+  
+  
+  /**
+   * Return whether a name may contain every character in a mask.  A
+   * name that fails this cannot match a key with that mask.
+   * 
+   * @param index the index of the name
+   * @param mask the mask of the characters
+   * @return whether the name has every character of the mask
+   */
+  public boolean hasChars(final int index, final long mask)
+  {
+    return ((masks[index] & mask) == mask);
+  }
+  
+  
+  /**
+   * Return whether a name contains every key, given the combined mask
+   * of the keys.  The mask lets a name be rejected before any key is
+   * searched for.
+   * 
+   * @param index the index of the name
+   * @param keys the lowercase characters of each key
+   * @param keysMask the mask of the characters in all of the keys
+   * @return whether all of the keys are found in the name
+   */
+  public boolean containsAll(final int index, final char[][] keys, final long keysMask)
+  {
+    if ((masks[index] & keysMask) != keysMask)
+    {
+      return false;
+    }
+    
+    for (char[] key : keys)
+    {
+      if (!contains(index, key, 0L))
+      {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  
+  /**
+   * Return the combined mask of the characters in some keys.
+   * 
+   * @param keys the lowercase characters of each key
+   * @return the mask
+   */
+  public static long getMask(final char[][] keys)
+  {
+    long mask = 0L;
+    for (char[] key : keys)
+    {
+      mask |= getMask(key);
+    }
+    
+    return mask;
+  }
+}
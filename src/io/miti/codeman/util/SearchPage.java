@@ -0,0 +1,184 @@
+package io.miti.codeman.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.search.ScoreDoc;
+
+import io.miti.codeman.domain.SearchResult;
+
+/**
+ * One page of the results of an index search.  The last hit on the
+ * page is the cursor for fetching the next page, so later pages are
+ * collected without collecting the hits before them again.
+ */
+public final class SearchPage
+{
+  /** The results on this page. */
+  private final List<SearchResult> results;
+  
+  /** The number of results before this page. */
+  private final int start;
+  
+  /** The number of matching files, up to the limit of the search. */
+  private final int totalHits;
+  
+  /** The last hit on this page, or null if the page is empty. */
+  private final ScoreDoc after;
+  
+  /** Whether the search was stopped by the time limit. */
+  private final boolean truncated;
+  
+  /** The facet counts of every hit, or null if they were not counted. */
+  private FacetCounts facets = null;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param pResults the results on this page
+   * @param nStart the number of results before this page
+   * @param nTotalHits the number of matching files
+   * @param pAfter the last hit on this page
+   */
+  public SearchPage(final List<SearchResult> pResults, final int nStart,
+                    final int nTotalHits, final ScoreDoc pAfter)
+  {
+    this(pResults, nStart, nTotalHits, pAfter, false);
+  }
+  
+  
+  /**
+   * Constructor for a page that may be partial.
+   * 
+   * @param pResults the results on this page
+   * @param nStart the number of results before this page
+   * @param nTotalHits the number of matching files found
+   * @param pAfter the last hit on this page
+   * @param bTruncated whether the search was stopped by the time limit
+   */
+  public SearchPage(final List<SearchResult> pResults, final int nStart,
+                    final int nTotalHits, final ScoreDoc pAfter,
+                    final boolean bTruncated)
+  {
+    results = pResults;
+    start = nStart;
+    totalHits = nTotalHits;
+    after = pAfter;
+    truncated = bTruncated;
+  }
+  
+  
+  /**
+   * Return an empty page.
+   * 
+   * @param nStart the number of results before this page
+   * @return the empty page
+   */
+  public static SearchPage empty(final int nStart)
+  {
+    return new SearchPage(new ArrayList<SearchResult>(0), nStart, nStart, null);
+  }
+  
+  
+  /**
+   * Return the results on this page.
+   * 
+   * @return the list of results
+   */
+  public List<SearchResult> getResults()
+  {
+    return results;
+  }
+  
+  
+  /**
+   * Return the number of results before this page.
+   * 
+   * @return the number of results on the earlier pages
+   */
+  public int getStart()
+  {
+    return start;
+  }
+  
+  
+  /**
+   * Return the number of results up to the end of this page.
+   * 
+   * @return the number of results on this page and the earlier pages
+   */
+  public int getEnd()
+  {
+    return start + results.size();
+  }
+  
+  
+  /**
+   * Return the number of matching files, up to the limit of the search.
+   * 
+   * @return the number of hits
+   */
+  public int getTotalHits()
+  {
+    return totalHits;
+  }
+  
+  
+  /**
+   * Return the cursor for fetching the next page.
+   * 
+   * @return the last hit on this page, or null if the page is empty
+   */
+  public ScoreDoc getAfter()
+  {
+    return after;
+  }
+  
+  
+  /**
+   * Return whether the search was stopped by the time limit.  The
+   * results are then the best of the files checked before the limit,
+   * and the number of hits only counts those files.
+   * 
+   * @return whether the results are partial
+   */
+  public boolean isTruncated()
+  {
+    return truncated;
+  }
+  
+  
+  /**
+   * Return the facet counts of every hit of the search, not just the
+   * hits on this page.
+   * 
+   * @return the facet counts, or null if they were not counted
+   */
+  public FacetCounts getFacets()
+  {
+    return facets;
+  }
+  
+  
+  /**
+   * Set the facet counts of the search.
+   * 
+   * @param pFacets the facet counts
+   */
+  public void setFacets(final FacetCounts pFacets)
+  {
+    facets = pFacets;
+  }
+  
+  
+  /**
+   * Return whether there are results after this page.
+   * 
+   * @return whether there is another page
+   */
+  public boolean hasMore()
+  {
+    return ((after != null) && (getEnd() < totalHits));
+  }
+}
@@ -0,0 +1,203 @@
+package io.miti.codeman.util;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.lucene.search.Query;
+
+/**
+ * A log of the recent searches that took longer than a threshold.
+ * Each entry records the parsed query, the number of hits and the
+ * time taken, and whether the search was stopped by the time limit.
+ * Only the most recent entries are kept.
+ */
+public final class SlowQueryLog
+{
+  /** The one instance of this class. */
+  private static final SlowQueryLog inst;
+  
+  /** The maximum number of entries kept. */
+  private static final int MAX_ENTRIES = 100;
+  
+  /** The entries, oldest first. */
+  private final LinkedList<Entry> entries = new LinkedList<Entry>();
+  
+  /** Searches taking at least this long are logged, in milliseconds. */
+  private long thresholdMillis = 0L;
+  
+  static
+  {
+    inst = new SlowQueryLog();
+  }
+  
+  
+  /**
+   * Default constructor.
+   */
+  private SlowQueryLog()
+  {
+    thresholdMillis = WindowState.getInstance().getSlowQueryMillis();
+  }
+  
+  
+  /**
+   * Return the one instance of this class.
+   * 
+   * @return the one instance of this class
+   */
+  public static SlowQueryLog getInstance()
+  {
+    return inst;
+  }
+  
+  
+  /**
+   * Set the threshold for logging a search.
+   * 
+   * @param millis the threshold in milliseconds
+   */
+  public synchronized void setThresholdMillis(final long millis)
+  {
+    thresholdMillis = Math.max(0L, millis);
+  }
+  
+  
+  /**
+   * Return the threshold for logging a search.
+   * 
+   * @return the threshold in milliseconds
+   */
+  public synchronized long getThresholdMillis()
+  {
+    return thresholdMillis;
+  }
+  
+  
+  /**
+   * Record a search, if it took at least as long as the threshold or
+   * was stopped by the time limit.
+   * 
+   * @param query the parsed query
+   * @param hits the number of hits found
+   * @param millis the time taken, in milliseconds
+   * @param truncated whether the search was stopped by the time limit
+   */
+  public void record(final Query query, final int hits, final long millis,
+                     final boolean truncated)
+  {
+    synchronized (this)
+    {
+      if ((millis < thresholdMillis) && !truncated)
+      {
+        return;
+      }
+      
+      entries.addLast(new Entry(String.valueOf(query), hits, millis, truncated));
+      if (entries.size() > MAX_ENTRIES)
+      {
+        entries.removeFirst();
+      }
+    }
+    
+    Logger.info(String.format("Slow query (%d ms, %d hits%s): %s", millis, hits,
+        (truncated ? ", truncated" : ""), query));
+  }
+  
+  
+  /**
+   * Return the slowest of the recent entries, slowest first.
+   * 
+   * @param count the maximum number of entries
+   * @return the list of entries
+   */
+  public synchronized List<Entry> getWorst(final int count)
+  {
+    List<Entry> list = new ArrayList<Entry>(entries);
+    Collections.sort(list, new Comparator<Entry>()
+    {
+      @Override
+      public int compare(final Entry e1, final Entry e2)
+      {
+        return (e1.millis > e2.millis) ? -1 : ((e1.millis == e2.millis) ? 0 : 1);
+      }
+    });
+    
+    return ((list.size() > count) ? new ArrayList<Entry>(list.subList(0, count)) : list);
+  }
+  
+  
+  /**
+   * Remove all of the entries.
+   */
+  public synchronized void clear()
+  {
+    entries.clear();
+  }
+  
+  
+  /**
+   * One slow search.  The fields are read by ListFormatter.
+   */
+  public static final class Entry
+  {
+    /** The time the search finished. */
+    private final String time;
+    
+    /** The time taken, in milliseconds. */
+    private final long millis;
+    
+    /** The number of hits found. */
+    private final int hits;
+    
+    /** Shows whether the search was stopped by the time limit. */
+    private final String truncated;
+    
+    /** The parsed query. */
+    private final String query;
+    
+    /**
+     * Constructor.
+     * 
+     * @param sQuery the parsed query
+     * @param nHits the number of hits
+     * @param lMillis the time taken
+     * @param bTruncated whether the search was stopped by the time limit
+     */
+    public Entry(final String sQuery, final int nHits, final long lMillis,
+                 final boolean bTruncated)
+    {
+      time = new SimpleDateFormat("HH:mm:ss").format(new Date());
+      query = sQuery;
+      hits = nHits;
+      millis = lMillis;
+      truncated = bTruncated ? "yes" : "no";
+    }
+    
+    
+    /**
+     * Return the time taken.
+     * 
+     * @return the time in milliseconds
+     */
+    public long getMillis()
+    {
+      return millis;
+    }
+    
+    
+    /**
+     * Return the parsed query.
+     * 
+     * @return the query
+     */
+    public String getQuery()
+    {
+      return query;
+    }
+  }
+}
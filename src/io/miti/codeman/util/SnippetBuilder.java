@@ -0,0 +1,408 @@
+package io.miti.codeman.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.MultiPhraseQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+
+/**
+ * Build the snippets for a search result: the lines of the file that
+ * best match the terms of the query, with their line numbers and the
+ * matching text highlighted.  The index is case-insensitive and splits
+ * identifiers into their parts, so the terms are found in the text as
+ * case-insensitive substrings.
+ */
+public final class SnippetBuilder
+{
+  /** The marker before highlighted text. */
+  public static final String HIGHLIGHT_START = "[[";
+  
+  /** The marker after highlighted text. */
+  public static final String HIGHLIGHT_END = "]]";
+  
+  /** The default number of snippets for each file. */
+  public static final int DEFAULT_MAX_SNIPPETS = 3;
+  
+  /** Snippet lines longer than this are cut around the first match. */
+  private static final int MAX_LINE_LENGTH = 160;
+  
+  /** The pattern matching any of the query terms, or null if there are none. */
+  private final Pattern pattern;
+  
+  /** The maximum number of snippets for each file. */
+  private int maxSnippets = DEFAULT_MAX_SNIPPETS;
+  
+  
+  /**
+   * Constructor.
+   * 
+   * @param query the query whose terms are highlighted
+   * @param field the field whose terms are used
+   */
+  public SnippetBuilder(final Query query, final String field)
+  {
+    final Set<String> regexes = new LinkedHashSet<String>(8);
+    addTerms(query, field, regexes);
+    if (regexes.isEmpty())
+    {
+      pattern = null;
+    }
+    else
+    {
+      final StringBuilder sb = new StringBuilder(64);
+      for (String regex : regexes)
+      {
+        sb.append((sb.length() == 0) ? "" : "|").append(regex);
+      }
+      pattern = Pattern.compile(sb.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+  }
+  
+  
+  /**
+   * Set the maximum number of snippets for each file.
+   * 
+   * @param nMaxSnippets the number of snippets
+   */
+  public void setMaxSnippets(final int nMaxSnippets)
+  {
+    maxSnippets = nMaxSnippets;
+  }
+  
+  
+  /**
+   * Return whether the query has any terms to highlight.
+   * 
+   * @return whether snippets can be built
+   */
+  public boolean hasTerms()
+  {
+    return (pattern != null);
+  }
+  
+  
+  /**
+   * Add the regular expressions for the terms of a query on the field.
+   * Prohibited clauses are skipped, since their terms are not in the file.
+   * 
+   * @param query the query
+   * @param field the field
+   * @param regexes the set to add the expressions to
+   */
+  private static void addTerms(final Query query, final String field,
+                               final Set<String> regexes)
+  {
+    if (query instanceof BooleanQuery)
+    {
+      for (BooleanClause clause : ((BooleanQuery) query).getClauses())
+      {
+        if (!clause.isProhibited())
+        {
+          addTerms(clause.getQuery(), field, regexes);
+        }
+      }
+    }
+    else if (query instanceof TermQuery)
+    {
+      addTerm(((TermQuery) query).getTerm(), field, regexes, "");
+    }
+    else if (query instanceof PhraseQuery)
+    {
+      for (Term term : ((PhraseQuery) query).getTerms())
+      {
+        addTerm(term, field, regexes, "");
+      }
+    }
+    else if (query instanceof MultiPhraseQuery)
+    {
+      for (Term[] terms : ((MultiPhraseQuery) query).getTermArrays())
+      {
+        for (Term term : terms)
+        {
+          addTerm(term, field, regexes, "");
+        }
+      }
+    }
+    else if (query instanceof PrefixQuery)
+    {
+      addTerm(((PrefixQuery) query).getPrefix(), field, regexes, "[\\w$]*");
+    }
+    else if (query instanceof FuzzyQuery)
+    {
+      addTerm(((FuzzyQuery) query).getTerm(), field, regexes, "");
+    }
+    else if (query instanceof WildcardQuery)
+    {
+      final Term term = ((WildcardQuery) query).getTerm();
+      if (term.field().equals(field))
+      {
+        regexes.add(wildcardToRegex(term.text()));
+      }
+    }
+  }
+  
+  
+  /**
+   * Add the regular expression for one term.
+   * 
+   * @param term the term
+   * @param field the field to use terms from
+   * @param regexes the set to add the expression to
+   * @param suffix the expression appended to the literal term
+   */
+  private static void addTerm(final Term term, final String field,
+                              final Set<String> regexes, final String suffix)
+  {
+    if (term.field().equals(field) && (term.text().length() > 0))
+    {
+      regexes.add(Pattern.quote(term.text()) + suffix);
+    }
+  }
+  
+  
+  /**
+   * Convert a wildcard term into a regular expression.  The wildcards
+   * only match within an identifier, as they do in the index.
+   * 
+   * @param text the wildcard term
+   * @return the regular expression
+   */
+  private static String wildcardToRegex(final String text)
+  {
+    final StringBuilder sb = new StringBuilder(text.length() + 16);
+    final StringBuilder literal = new StringBuilder(16);
+    for (int i = 0; i < text.length(); ++i)
+    {
+      final char ch = text.charAt(i);
+      if ((ch == WildcardQuery.WILDCARD_STRING) || (ch == WildcardQuery.WILDCARD_CHAR))
+      {
+        if (literal.length() > 0)
+        {
+          sb.append(Pattern.quote(literal.toString()));
+          literal.setLength(0);
+        }
+        sb.append((ch == WildcardQuery.WILDCARD_STRING) ? "[\\w$]*" : "[\\w$]");
+      }
+      else if ((ch == WildcardQuery.WILDCARD_ESCAPE) && ((i + 1) < text.length()))
+      {
+        literal.append(text.charAt(++i));
+      }
+      else
+      {
+        literal.append(ch);
+      }
+    }
+    
+    if (literal.length() > 0)
+    {
+      sb.append(Pattern.quote(literal.toString()));
+    }
+    
+    return sb.toString();
+  }
+  
+  
+  /**
+   * Find the best matching lines of a file.  Lines are ranked by the
+   * number of different terms they contain, then by the number of
+   * matches, and the best lines are returned in file order.
+   * 
+   * @param text the text of the file
+   * @return the snippets, which may be empty
+   */
+  public List<Snippet> build(final String text)
+  {
+    List<Snippet> snippets = new ArrayList<Snippet>(maxSnippets);
+    if ((pattern == null) || (text == null) || (maxSnippets < 1))
+    {
+      return snippets;
+    }
+    
+    final Matcher matcher = pattern.matcher(text);
+    final Set<String> found = new LinkedHashSet<String>(8);
+    final int length = text.length();
+    int lineNum = 1;
+    int lineStart = 0;
+    int scanned = 0;
+    int pos = 0;
+    while ((pos < length) && matcher.find(pos))
+    {
+      // Count the lines up to the match
+      final int start = matcher.start();
+      for (int i = scanned; i < start; ++i)
+      {
+        if (text.charAt(i) == '\n')
+        {
+          ++lineNum;
+          lineStart = i + 1;
+        }
+      }
+      
+      // Highlight every match on the line
+      int lineEnd = text.indexOf('\n', start);
+      lineEnd = (lineEnd < 0) ? length : lineEnd;
+      final Snippet snippet = new Snippet(lineNum);
+      final StringBuilder sb = new StringBuilder(lineEnd - lineStart + 16);
+      int last = lineStart;
+      found.clear();
+      matcher.region(start, lineEnd);
+      while (matcher.find())
+      {
+        sb.append(text, last, matcher.start()).append(HIGHLIGHT_START)
+          .append(matcher.group()).append(HIGHLIGHT_END);
+        found.add(matcher.group().toLowerCase());
+        last = matcher.end();
+        ++snippet.matches;
+      }
+      sb.append(text, last, lineEnd);
+      snippet.terms = found.size();
+      snippet.text = trimLine(sb.toString(), start - lineStart);
+      snippets.add(snippet);
+      
+      // Continue on the next line
+      scanned = lineEnd;
+      pos = lineEnd + 1;
+    }
+    
+    // Keep the best lines, in file order
+    if (snippets.size() > maxSnippets)
+    {
+      Collections.sort(snippets, Snippet.BY_RANK);
+      snippets = new ArrayList<Snippet>(snippets.subList(0, maxSnippets));
+      Collections.sort(snippets, Snippet.BY_LINE);
+    }
+    
+    return snippets;
+  }
+  
+  
+  /**
+   * Trim the white space from a line, and cut a long line around its
+   * first match.
+   * 
+   * @param line the highlighted line
+   * @param firstMatch the offset of the first match in the line
+   * @return the trimmed line
+   */
+  private static String trimLine(final String line, final int firstMatch)
+  {
+    String result = line;
+    if (result.length() > MAX_LINE_LENGTH)
+    {
+      final int start = Math.max(0, Math.min(firstMatch - (MAX_LINE_LENGTH / 4),
+          result.length() - MAX_LINE_LENGTH));
+      result = ((start > 0) ? "..." : "") + result.substring(start, start + MAX_LINE_LENGTH)
+          + (((start + MAX_LINE_LENGTH) < result.length()) ? "..." : "");
+    }
+    
+    return result.trim();
+  }
+  
+  
+  /**
+   * One matching line of a file.
+   */
+  public static final class Snippet
+  {
+    /** Orders snippets by line number. */
+    static final Comparator<Snippet> BY_LINE = new Comparator<Snippet>()
+    {
+      @Override
+      public int compare(final Snippet s1, final Snippet s2)
+      {
+        return (s1.line < s2.line) ? -1 : ((s1.line == s2.line) ? 0 : 1);
+      }
+    };
+    
+    /** Orders snippets with the most terms and matches first. */
+    static final Comparator<Snippet> BY_RANK = new Comparator<Snippet>()
+    {
+      @Override
+      public int compare(final Snippet s1, final Snippet s2)
+      {
+        if (s1.terms != s2.terms)
+        {
+          return (s1.terms > s2.terms) ? -1 : 1;
+        }
+        else if (s1.matches != s2.matches)
+        {
+          return (s1.matches > s2.matches) ? -1 : 1;
+        }
+        
+        return BY_LINE.compare(s1, s2);
+      }
+    };
+    
+    /** The line number, starting at 1. */
+    private final int line;
+    
+    /** The text of the line, with the matches highlighted. */
+    private String text = null;
+    
+    /** The number of different terms on the line. */
+    private int terms = 0;
+    
+    /** The number of matches on the line. */
+    private int matches = 0;
+    
+    /**
+     * Constructor.
+     * 
+     * @param nLine the line number
+     */
+    public Snippet(final int nLine)
+    {
+      line = nLine;
+    }
+    
+    
+    /**
+     * Return the line number.
+     * 
+     * @return the line number, starting at 1
+     */
+    public int getLine()
+    {
+      return line;
+    }
+    
+    
+    /**
+     * Return the text of the line, with the matches highlighted.
+     * 
+     * @return the text
+     */
+    public String getText()
+    {
+      return text;
+    }
+    
+    
+    /**
+     * Return the snippet as a string.
+     * 
+     * @return the line number and text
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+      return line + ": " + text;
+    }
+  }
+}
@@ -0,0 +1,250 @@
+package io.miti.codeman.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Decode the bytes of a zip entry into text.  The charset is either
+ * configured or detected from a byte order mark or from whether the
+ * start of the entry is valid UTF-8.  Entries are decoded through a
+ * Reader, so the text of a large file never has to be held as a String.
+ */
+public final class TextDecoder
+{
+  /** The number of bytes examined when detecting the charset. */
+  public static final int SNIFF_BYTES = 8192;
+  
+  /** The UTF-8 charset. */
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  
+  /** The UTF-16 big-endian charset. */
+  private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+  
+  /** The UTF-16 little-endian charset. */
+  private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+  
+  /** The charset for text that is not UTF-8.  Latin-1 maps every byte to a character. */
+  private static final Charset FALLBACK = Charset.forName("ISO-8859-1");
+  
+  
+  /**
+   * Default constructor.
+   */
+  private TextDecoder()
+  {
+    super();
+  }
+  
+  
+  /**
+   * Decode an array of bytes into a string.
+   * 
+   * @param data the bytes
+   * @param charset the charset, or null to detect it
+   * @return the text
+   */
+  public static String decode(final byte[] data, final Charset charset)
+  {
+    final int bom = getBomLength(data, data.length);
+    final Charset cs = (charset == null) ? detect(data, data.length) : charset;
+    return new String(data, bom, data.length - bom, cs);
+  }
+  
+  
+  /**
+   * Open a reader over an array of bytes.
+   * 
+   * @param data the bytes
+   * @param charset the charset, or null to detect it
+   * @return the reader
+   */
+  public static Reader openReader(final byte[] data, final Charset charset)
+  {
+    final int bom = getBomLength(data, data.length);
+    final Charset cs = (charset == null) ? detect(data, data.length) : charset;
+    return new InputStreamReader(new ByteArrayInputStream(data, bom, data.length - bom), cs);
+  }
+  
+  
+  /**
+   * Open a reader over a stream.  Only the start of the stream is
+   * buffered to detect the charset.
+   * 
+   * @param is the input stream
+   * @param charset the charset, or null to detect it
+   * @return the reader
+   * @throws IOException if the stream cannot be read
+   */
+  public static Reader openReader(final InputStream is, final Charset charset)
+    throws IOException
+  {
+    final BufferedInputStream bis = new BufferedInputStream(is, SNIFF_BYTES);
+    bis.mark(SNIFF_BYTES);
+    final byte[] prefix = new byte[SNIFF_BYTES];
+    int length = 0;
+    int numRead = 0;
+    while ((length < SNIFF_BYTES)
+           && ((numRead = bis.read(prefix, length, SNIFF_BYTES - length)) > 0))
+    {
+      length += numRead;
+    }
+    bis.reset();
+    
+    // Skip the byte order mark
+    final int bom = getBomLength(prefix, length);
+    long skipped = 0L;
+    while (skipped < bom)
+    {
+      skipped += bis.skip(bom - skipped);
+    }
+    
+    final Charset cs = (charset == null) ? detect(prefix, length) : charset;
+    return new InputStreamReader(bis, cs);
+  }
+  
+  
+  /**
+   * Detect the charset of the start of some text.
+   * 
+   * @param data the bytes
+   * @param length the number of valid bytes
+   * @return the charset
+   */
+  public static Charset detect(final byte[] data, final int length)
+  {
+    if ((length >= 2) && ((data[0] & 0xFF) == 0xFE) && ((data[1] & 0xFF) == 0xFF))
+    {
+      return UTF_16BE;
+    }
+    else if ((length >= 2) && ((data[0] & 0xFF) == 0xFF) && ((data[1] & 0xFF) == 0xFE))
+    {
+      return UTF_16LE;
+    }
+    
+    return (isUtf8(data, Math.min(length, SNIFF_BYTES)) ? UTF_8 : FALLBACK);
+  }
+  
+  
+  /**
+   * Return whether the start of some data looks like a binary file.
+   * Text with a UTF-16 byte order mark is not binary.  Otherwise the
+   * data is binary if it contains a NUL byte, or if more than one
+   * byte in ten is a control character other than white space.
+   * 
+   * @param data the bytes
+   * @param length the number of valid bytes
+   * @return whether the data is binary
+   */
+  public static boolean isBinary(final byte[] data, final int length)
+  {
+    if (getBomLength(data, length) > 0)
+    {
+      return false;
+    }
+    
+    final int end = Math.min(length, SNIFF_BYTES);
+    int numControl = 0;
+    for (int i = 0; i < end; ++i)
+    {
+      final int b = data[i] & 0xFF;
+      if (b == 0)
+      {
+        return true;
+      }
+      else if (((b < 0x20) && (b != '\t') && (b != '\n') && (b != '\r')
+                && (b != '\f') && (b != 0x1B)) || (b == 0x7F))
+      {
+        ++numControl;
+      }
+    }
+    
+    return ((numControl * 10) > end);
+  }
+  
+  
+  /**
+   * Return the length of the byte order mark at the start of the data.
+   * 
+   * @param data the bytes
+   * @param length the number of valid bytes
+   * @return the number of bytes in the byte order mark, or zero if there is none
+   */
+  private static int getBomLength(final byte[] data, final int length)
+  {
+    if ((length >= 3) && ((data[0] & 0xFF) == 0xEF) && ((data[1] & 0xFF) == 0xBB)
+        && ((data[2] & 0xFF) == 0xBF))
+    {
+      return 3;
+    }
+    else if ((length >= 2) && ((((data[0] & 0xFF) == 0xFE) && ((data[1] & 0xFF) == 0xFF))
+        || (((data[0] & 0xFF) == 0xFF) && ((data[1] & 0xFF) == 0xFE))))
+    {
+      return 2;
+    }
+    
+    return 0;
+  }
+  
+  
+  /**
+   * Return whether the bytes are valid UTF-8.  A sequence cut off by
+   * the end of the data is accepted, since the data may be a prefix.
+   * 
+   * @param data the bytes
+   * @param length the number of bytes to check
+   * @return whether the bytes are valid UTF-8
+   */
+  private static boolean isUtf8(final byte[] data, final int length)
+  {
+    int i = 0;
+    while (i < length)
+    {
+      final int b = data[i] & 0xFF;
+      int trailing = 0;
+      if (b < 0x80)
+      {
+        ++i;
+        continue;
+      }
+      else if ((b >= 0xC2) && (b <= 0xDF))
+      {
+        trailing = 1;
+      }
+      else if ((b >= 0xE0) && (b <= 0xEF))
+      {
+        trailing = 2;
+      }
+      else if ((b >= 0xF0) && (b <= 0xF4))
+      {
+        trailing = 3;
+      }
+      else
+      {
+        return false;
+      }
+      
+      // Check the continuation bytes
+      for (int j = 1; j <= trailing; ++j)
+      {
+        if ((i + j) >= length)
+        {
+          return true;
+        }
+        
+        if ((data[i + j] & 0xC0) != 0x80)
+        {
+          return false;
+        }
+      }
+      
+      i += (trailing + 1);
+    }
+    
+    return true;
+  }
+}
@@ -0,0 +1,177 @@
+package io.miti.codeman.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+
+/**
+ * An analyzer that emits every overlapping three-character window of
+ * the lower-cased text, including punctuation and white space.  The
+ * resulting posting lists are used to narrow the files that can contain
+ * a substring or regular expression before the text is checked.
+ */
+public final class TrigramAnalyzer extends Analyzer
+{
+  /** The number of characters in a gram. */
+  public static final int GRAM_SIZE = 3;
+  
+  
+  /**
+   * Default constructor.
+   */
+  public TrigramAnalyzer()
+  {
+    super();
+  }
+  
+  
+  @Override
+  protected TokenStreamComponents createComponents(final String fieldName,
+                                                   final Reader reader)
+  {
+    return new TokenStreamComponents(new TrigramTokenizer(reader));
+  }
+  
+  
+  /**
+   * Return the lower-cased trigram at a position in a string.  This
+   * matches the terms produced by the analyzer.
+   * 
+   * @param text the string
+   * @param start the start of the trigram
+   * @return the trigram
+   */
+  public static String getGram(final String text, final int start)
+  {
+    final char[] gram = new char[GRAM_SIZE];
+    for (int i = 0; i < GRAM_SIZE; ++i)
+    {
+      gram[i] = Character.toLowerCase(text.charAt(start + i));
+    }
+    
+    return new String(gram);
+  }
+  
+  
+  /**
+   * Splits text into overlapping trigrams.
+   */
+  private static final class TrigramTokenizer extends Tokenizer
+  {
+    /** The term text. */
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    
+    /** The term offsets. */
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+    
+    /** The buffer of characters read from the input. */
+    private final char[] buffer = new char[4096];
+    
+    /** The number of valid characters in the buffer. */
+    private int bufferLength = 0;
+    
+    /** The position of the next gram in the buffer. */
+    private int bufferIndex = 0;
+    
+    /** The offset of the start of the buffer in the input. */
+    private int bufferOffset = 0;
+    
+    /** Whether the end of the input has been reached. */
+    private boolean exhausted = false;
+    
+    
+    /**
+     * Constructor.
+     * 
+     * @param input the text to tokenize
+     */
+    public TrigramTokenizer(final Reader input)
+    {
+      super(input);
+    }
+    
+    
+    @Override
+    public boolean incrementToken() throws IOException
+    {
+      clearAttributes();
+      
+      // Make sure the buffer holds a whole gram
+      if ((bufferIndex + GRAM_SIZE) > bufferLength)
+      {
+        if (!fillBuffer())
+        {
+          return false;
+        }
+      }
+      
+      final char[] term = termAtt.resizeBuffer(GRAM_SIZE);
+      for (int i = 0; i < GRAM_SIZE; ++i)
+      {
+        term[i] = Character.toLowerCase(buffer[bufferIndex + i]);
+      }
+      termAtt.setLength(GRAM_SIZE);
+      
+      final int start = bufferOffset + bufferIndex;
+      offsetAtt.setOffset(correctOffset(start), correctOffset(start + GRAM_SIZE));
+      ++bufferIndex;
+      
+      return true;
+    }
+    
+    
+    /**
+     * Move the unread characters to the front of the buffer and read
+     * more input.
+     * 
+     * @return whether the buffer holds a whole gram
+     * @throws IOException if the input cannot be read
+     */
+    private boolean fillBuffer() throws IOException
+    {
+      final int remaining = bufferLength - bufferIndex;
+      System.arraycopy(buffer, bufferIndex, buffer, 0, remaining);
+      bufferOffset += bufferIndex;
+      bufferIndex = 0;
+      bufferLength = remaining;
+      
+      while (!exhausted && (bufferLength < GRAM_SIZE))
+      {
+        final int numRead = input.read(buffer, bufferLength, buffer.length - bufferLength);
+        if (numRead < 0)
+        {
+          exhausted = true;
+        }
+        else
+        {
+          bufferLength += numRead;
+        }
+      }
+      
+      return (bufferLength >= GRAM_SIZE);
+    }
+    
+    
+    @Override
+    public void end()
+    {
+      final int finalOffset = correctOffset(bufferOffset + bufferLength);
+      offsetAtt.setOffset(finalOffset, finalOffset);
+    }
+    
+    
+    @Override
+    public void reset() throws IOException
+    {
+      super.reset();
+      bufferLength = 0;
+      bufferIndex = 0;
+      bufferOffset = 0;
+      exhausted = false;
+    }
+  }
+}
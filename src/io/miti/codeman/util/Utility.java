@@ -8,6 +8,8 @@ import java.awt.Toolkit;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -956,6 +958,48 @@ public final class Utility
   }
   
   
+  /**
+   * Read the rest of a stream into a byte array.  If the size is
+   * known, the data is read straight into an array of that size.
+   * 
+   * @param is the input stream
+   * @param size the number of bytes in the stream, or -1 if unknown
+   * @return the bytes in the stream
+   * @throws IOException if the stream cannot be read
+   */
+  public static byte[] readFully(final InputStream is, final long size)
+    throws IOException
+  {
+    if ((size >= 0L) && (size < Integer.MAX_VALUE))
+    {
+      final byte[] data = new byte[(int) size];
+      int offset = 0;
+      while (offset < data.length)
+      {
+        final int numRead = is.read(data, offset, data.length - offset);
+        if (numRead < 0)
+        {
+          throw new EOFException("Expected " + size + " bytes but read " + offset);
+        }
+        offset += numRead;
+      }
+      
+      return data;
+    }
+    
+    // The size is unknown, so grow the buffer as needed
+    ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+    byte[] buf = new byte[8192];
+    int numRead = 0;
+    while ((numRead = is.read(buf)) != -1)
+    {
+      baos.write(buf, 0, numRead);
+    }
+    
+    return baos.toByteArray();
+  }
+  
+  
   /**
    * Copy text to the clipboard.
    * 
@@ -3,6 +3,9 @@ package io.miti.codeman.util;
 import java.awt.Dimension;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -57,6 +60,62 @@ public final class WindowState
   /** The directory for the zip file. */
   private String zipDir = null;
   
+  /**
+   * The number of worker threads used when indexing a zip file.
+   * Zero means use one thread per available processor.
+   */
+  private int indexThreads = 0;
+  
+  /**
+   * The maximum number of inflated zip entries waiting to be
+   * indexed by the worker threads.
+   */
+  private int indexQueueDepth = 64;
+  
+  /**
+   * The maximum number of bytes of zip entries waiting to be
+   * indexed by the worker threads.
+   */
+  private long indexQueueBytes = 64L * 1024L * 1024L;
+  
+  /**
+   * Whether opening a zip file lists the files in its nested archives.
+   * This inflates every nested archive, so it is off by default.
+   */
+  private boolean listNested = false;
+  
+  /**
+   * The memory budget, in bytes, for the cache of decoded file text.
+   */
+  private long contentCacheBytes = 32L * 1024L * 1024L;
+  
+  /**
+   * The time budget, in milliseconds, for building the snippets of
+   * the results of one search.
+   */
+  private long snippetMillis = 500L;
+  
+  /**
+   * The time limit, in milliseconds, for collecting the hits of one
+   * search.  Zero means no limit.
+   */
+  private long searchTimeoutMillis = 10000L;
+  
+  /**
+   * Searches taking at least this many milliseconds are recorded in
+   * the slow query log.
+   */
+  private long slowQueryMillis = 500L;
+  
+  /**
+   * The maximum number of hits collected by a workspace search, over
+   * all of its pages.
+   */
+  private int workspaceMaxHits = 1000;
+  
+  /** The installed directories in the workspace. */
+  private List<String> workspaceDirs = new ArrayList<String>(10);
+  
   
   /**
    * Default constructor.
@@ -256,6 +315,201 @@ public final class WindowState
   }
   
   
+  /**
+   * Return the number of indexing threads.
+   * 
+   * @return the number of threads used to index a zip file
+   */
+  public int getIndexThreads()
+  {
+    if (indexThreads <= 0)
+    {
+      return Runtime.getRuntime().availableProcessors();
+    }
+    
+    return indexThreads;
+  }
+  
+  
+  /**
+   * Set the number of indexing threads.
+   * 
+   * @param threads the number of threads (zero for one per processor)
+   */
+  public void setIndexThreads(final int threads)
+  {
+    indexThreads = Math.max(0, threads);
+  }
+  
+  
+  /**
+   * Return the depth of the queue between the zip reader and
+   * the indexing threads.
+   * 
+   * @return the queue depth
+   */
+  public int getIndexQueueDepth()
+  {
+    return Math.max(1, indexQueueDepth);
+  }
+  
+  
+  /**
+   * Set the depth of the indexing queue.
+   * 
+   * @param depth the queue depth
+   */
+  public void setIndexQueueDepth(final int depth)
+  {
+    indexQueueDepth = Math.max(1, depth);
+  }
+  
+  
+  /**
+   * Return the most bytes of entries that can be in the queue between
+   * the zip reader and the indexing threads.
+   * 
+   * @return the budget in bytes
+   */
+  public long getIndexQueueBytes()
+  {
+    return indexQueueBytes;
+  }
+  
+  
+  /**
+   * Return whether opening a zip file lists the files in its nested
+   * archives.  The files are indexed either way.
+   * 
+   * @return whether to list the files in nested archives
+   */
+  public boolean isListNested()
+  {
+    return listNested;
+  }
+  
+  
+  /**
+   * Return the memory budget for the cache of file text.
+   * 
+   * @return the budget in bytes
+   */
+  public long getContentCacheBytes()
+  {
+    return contentCacheBytes;
+  }
+  
+  
+  /**
+   * Set the memory budget for the cache of file text.
+   * 
+   * @param bytes the budget in bytes (zero disables the cache)
+   */
+  public void setContentCacheBytes(final long bytes)
+  {
+    contentCacheBytes = Math.max(0L, bytes);
+  }
+  
+  
+  /**
+   * Return the time budget for building the snippets of one search.
+   * 
+   * @return the budget in milliseconds
+   */
+  public long getSnippetMillis()
+  {
+    return snippetMillis;
+  }
+  
+  
+  /**
+   * Set the time budget for building the snippets of one search.
+   * 
+   * @param millis the budget in milliseconds (zero disables snippets)
+   */
+  public void setSnippetMillis(final long millis)
+  {
+    snippetMillis = Math.max(0L, millis);
+  }
+  
+  
+  /**
+   * Return the time limit for collecting the hits of one search.
+   * 
+   * @return the limit in milliseconds, or zero for no limit
+   */
+  public long getSearchTimeoutMillis()
+  {
+    return searchTimeoutMillis;
+  }
+  
+  
+  /**
+   * Set the time limit for collecting the hits of one search.
+   * 
+   * @param millis the limit in milliseconds (zero for no limit)
+   */
+  public void setSearchTimeoutMillis(final long millis)
+  {
+    searchTimeoutMillis = Math.max(0L, millis);
+  }
+  
+  
+  /**
+   * Return the threshold for recording a search in the slow query log.
+   * 
+   * @return the threshold in milliseconds
+   */
+  public long getSlowQueryMillis()
+  {
+    return slowQueryMillis;
+  }
+  
+  
+  /**
+   * Set the threshold for recording a search in the slow query log.
+   * 
+   * @param millis the threshold in milliseconds
+   */
+  public void setSlowQueryMillis(final long millis)
+  {
+    slowQueryMillis = Math.max(0L, millis);
+  }
+  
+  
+  /**
+   * Return the maximum number of hits collected by a workspace search.
+   * 
+   * @return the maximum number of hits
+   */
+  public int getWorkspaceMaxHits()
+  {
+    return Math.max(1, workspaceMaxHits);
+  }
+  
+  
+  /**
+   * Return the installed directories in the workspace.
+   * 
+   * @return the list of directory names
+   */
+  public List<String> getWorkspaceDirs()
+  {
+    return new ArrayList<String>(workspaceDirs);
+  }
+  
+  
+  /**
+   * Set the installed directories in the workspace.
+   * 
+   * @param dirs the list of directory names
+   */
+  public void setWorkspaceDirs(final List<String> dirs)
+  {
+    workspaceDirs = new ArrayList<String>(dirs);
+  }
+  
+  
   /**
    * Return this object as a string.
    * 
@@ -296,12 +550,33 @@ public final class WindowState
     prop.put("log.level", Integer.toString(logLevel));
     prop.put("log.file", logFile);
     prop.put("log.overwrite", logOverwrite ? "1" : "0");
+    prop.put("index.threads", Integer.toString(indexThreads));
+    prop.put("index.queue.depth", Integer.toString(indexQueueDepth));
+    prop.put("index.queue.bytes", Long.toString(indexQueueBytes));
+    prop.put("zip.list.nested", listNested ? "1" : "0");
+    prop.put("cache.content.bytes", Long.toString(contentCacheBytes));
+    prop.put("search.snippet.millis", Long.toString(snippetMillis));
+    prop.put("search.timeout.millis", Long.toString(searchTimeoutMillis));
+    prop.put("search.slow.millis", Long.toString(slowQueryMillis));
+    prop.put("workspace.max.hits", Integer.toString(workspaceMaxHits));
     
     if (zipDir != null)
     {
       prop.put("zip.dir", zipDir);
     }
     
+    // Save the workspace directories, separated like a class path
+    StringBuilder dirs = new StringBuilder(200);
+    for (String dir : workspaceDirs)
+    {
+      if (dirs.length() > 0)
+      {
+        dirs.append(File.pathSeparatorChar);
+      }
+      dirs.append(dir);
+    }
+    prop.put("workspace.dirs", dirs.toString());
+    
     // Save the properties to a file
     Utility.storeProperties(filename, prop);
   }
@@ -353,6 +628,95 @@ public final class WindowState
     // Instantiate a logging class
     Logger.initialize(ws.logLevel, ws.logFile, ws.logOverwrite);
     
+    // Read the indexing pipeline settings
+    val = props.getProperty("index.threads");
+    if ((val != null) && (val.length() > 0))
+    {
+      ws.indexThreads = Math.max(0, Utility.getStringAsInteger(val, 0, 0));
+    }
+    
+    val = props.getProperty("index.queue.depth");
+    if ((val != null) && (val.length() > 0))
+    {
+      ws.indexQueueDepth = Math.max(1, Utility.getStringAsInteger(val, 64, 64));
+    }
+    
+    val = props.getProperty("index.queue.bytes");
+    if ((val != null) && (val.length() > 0))
+    {
+      try
+      {
+        ws.indexQueueBytes = Math.max(1L, Long.parseLong(val.trim()));
+      }
+      catch (NumberFormatException nfe)
+      {
+        Logger.error("Invalid index.queue.bytes value: " + val);
+      }
+    }
+    
+    // Read whether to list the files in nested archives
+    val = props.getProperty("zip.list.nested");
+    if ((val != null) && (val.length() > 0))
+    {
+      ws.listNested = (val.equals("1"));
+    }
+    
+    // Read the memory budget for the file text cache
+    val = props.getProperty("cache.content.bytes");
+    if ((val != null) && (val.length() > 0))
+    {
+      try
+      {
+        ws.contentCacheBytes = Math.max(0L, Long.parseLong(val.trim()));
+      }
+      catch (NumberFormatException nfe)
+      {
+        Logger.error("Invalid cache.content.bytes value: " + val);
+      }
+    }
+    
+    // Read the time budget for search snippets
+    val = props.getProperty("search.snippet.millis");
+    if ((val != null) && (val.length() > 0))
+    {
+      try
+      {
+        ws.snippetMillis = Math.max(0L, Long.parseLong(val.trim()));
+      }
+      catch (NumberFormatException nfe)
+      {
+        Logger.error("Invalid search.snippet.millis value: " + val);
+      }
+    }
+    
+    // Read the time limit for searches
+    val = props.getProperty("search.timeout.millis");
+    if ((val != null) && (val.length() > 0))
+    {
+      try
+      {
+        ws.searchTimeoutMillis = Math.max(0L, Long.parseLong(val.trim()));
+      }
+      catch (NumberFormatException nfe)
+      {
+        Logger.error("Invalid search.timeout.millis value: " + val);
+      }
+    }
+    
+    // Read the threshold for the slow query log
+    val = props.getProperty("search.slow.millis");
+    if ((val != null) && (val.length() > 0))
+    {
+      try
+      {
+        ws.slowQueryMillis = Math.max(0L, Long.parseLong(val.trim()));
+      }
+      catch (NumberFormatException nfe)
+      {
+        Logger.error("Invalid search.slow.millis value: " + val);
+      }
+    }
+    
     // Get the directory for the zip file
     val = props.getProperty("zip.dir");
     if ((val != null) && (val.length() > 0))
@@ -360,6 +724,27 @@ public final class WindowState
       ws.zipDir = val.trim();
     }
     
+    // Get the limit on the hits of a workspace search
+    val = props.getProperty("workspace.max.hits");
+    if ((val != null) && (val.length() > 0))
+    {
+      ws.workspaceMaxHits = Math.max(1, Utility.getStringAsInteger(val, 1000, 1000));
+    }
+    
+    // Get the directories in the workspace
+    val = props.getProperty("workspace.dirs");
+    if ((val != null) && (val.length() > 0))
+    {
+      ws.workspaceDirs.clear();
+      for (String dir : val.split(File.pathSeparator))
+      {
+        if (dir.trim().length() > 0)
+        {
+          ws.workspaceDirs.add(dir.trim());
+        }
+      }
+    }
+    
     // Get the size of the screen
     Dimension screenDim = java.awt.Toolkit.getDefaultToolkit().getScreenSize();
     
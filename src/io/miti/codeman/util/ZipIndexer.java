@@ -1,46 +1,314 @@
 package io.miti.codeman.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.path.PathHierarchyTokenizer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TimeLimitingCollector;
+import org.apache.lucene.search.TimeLimitingCollector.TimeExceededException;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.WildcardQuery;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.SimpleFSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 
+import io.miti.codeman.domain.SearchOptions;
 import io.miti.codeman.domain.SearchResult;
 
 public final class ZipIndexer
 {
-  /** The analyzer for indexing and searching. */
-  private StandardAnalyzer analyzer = null;
+  /** The field holding the tokenized entry name. */
+  public static final String FIELD_TITLE = "title";
+  
+  /** The field holding the entry contents. */
+  public static final String FIELD_TEXT = "text";
+  
+  /** The field holding the trigrams of the entry contents. */
+  public static final String FIELD_GRAMS = "grams";
+  
+  /** The field holding the untokenized entry name, used as the document key. */
+  public static final String FIELD_PATH = "path";
+  
+  /**
+   * The field holding the name of the top-level entry that the document
+   * came from.  This differs from the path for entries in nested archives.
+   */
+  public static final String FIELD_ROOT = "root";
+  
+  /** The field holding the lower-cased file name, without the directory. */
+  public static final String FIELD_NAME = "name";
+  
+  /** The field holding the untokenized directory of the entry. */
+  public static final String FIELD_DIR = "dir";
+  
+  /**
+   * The field holding the directory of the entry and each of its
+   * parents, so a directory matches every entry below it.
+   */
+  public static final String FIELD_DIRS = "dirs";
+  
+  /** The facet field holding the top-level directory of the entry. */
+  public static final String FIELD_FACET_DIR = "facet.dir";
+  
+  /** The facet field holding the module of the entry. */
+  public static final String FIELD_FACET_MODULE = "facet.module";
+  
+  /** The facet field holding the extension of the entry. */
+  public static final String FIELD_FACET_EXT = "facet.ext";
+  
+  /**
+   * The field marking the documents whose text is indexed.  Entries
+   * that were skipped, such as binary or oversized files, only have
+   * their path indexed and do not have this field.
+   */
+  public static final String FIELD_HAS_TEXT = "hastext";
+  
+  /** The value of the field marking the documents whose text is indexed. */
+  public static final String HAS_TEXT = "yes";
+  
+  /**
+   * The field marking the documents that only hold the key of a skipped
+   * entry whose path is not indexed.  Searches leave them out.
+   */
+  private static final String FIELD_KEY_ONLY = "keyonly";
+  
+  /** The value of the field marking the documents that only hold a key. */
+  private static final String KEY_ONLY = "yes";
+  
+  /** The field holding the CRC-32 of the top-level entry. */
+  public static final String FIELD_CRC = "crc";
+  
+  /** The field holding the uncompressed size of the top-level entry. */
+  public static final String FIELD_SIZE = "size";
+  
+  /** The field holding the modification time of the top-level entry. */
+  public static final String FIELD_TIME = "mtime";
+  
+  /** The key in the commit data for the version of the document layout. */
+  private static final String SCHEMA_KEY = "codeman.schema";
+  
+  /** The current document layout.  Indexes with another layout get rebuilt. */
+  private static final String SCHEMA_VERSION = "8";
+  
+  /** The key in the commit data for the settings the documents were built with. */
+  private static final String LAYOUT_KEY = "codeman.layout";
+  
+  /** The trigram field only needs to record which documents hold each gram. */
+  private static final FieldType GRAMS_TYPE = new FieldType();
+  
+  /** The directory hierarchy field only needs to record which documents hold each directory. */
+  private static final FieldType DIRS_TYPE = new FieldType();
+  
+  /**
+   * Entries larger than this are not read into memory by the reader
+   * thread.  The worker streams them from the zip file instead.
+   */
+  private static final long STREAM_THRESHOLD = 1024L * 1024L;
+  
+  /** The time to wait for the workers to stop after a failure, in seconds. */
+  private static final long WORKER_STOP_SECONDS = 30L;
+  
+  /** The fields loaded when checking which entries changed. */
+  private static final Set<String> KEY_FIELDS = new HashSet<String>(
+      Arrays.asList(FIELD_ROOT, FIELD_CRC, FIELD_SIZE, FIELD_TIME));
+  
+  /** The field loaded for a ranked search result. */
+  public static final Set<String> TITLE_FIELD = Collections.singleton(FIELD_TITLE);
+  
+  /** The fields loaded for a ranked search result on a page. */
+  private static final Set<String> RESULT_FIELDS = new HashSet<String>(
+      Arrays.asList(FIELD_TITLE, FIELD_HAS_TEXT));
+  
+  /** The field loaded for a streamed search result. */
+  private static final Set<String> PATH_FIELD = Collections.singleton(FIELD_PATH);
+  
+  /** The analyzer for indexing, which splits identifiers into their parts. */
+  private Analyzer analyzer = null;
+  
+  /** The analyzer for parsing queries. */
+  private CodeAnalyzer queryAnalyzer = null;
+  
+  /** The number of threads that build and add documents. */
+  private int numThreads = 1;
+  
+  /** The number of entries that can wait between the reader and the workers. */
+  private int queueDepth = 64;
+  
+  /** The most bytes of entries that can wait between the reader and the workers. */
+  private int queueBytes = 64 * 1024 * 1024;
+  
+  /** The bytes of the queue's budget not used by waiting entries, while indexing. */
+  private Semaphore queueBudget = null;
+  
+  /** The settings for the installed directory. */
+  private IndexSettings settings = new IndexSettings();
+  
+  /** The field type of the file text, which depends on the settings. */
+  private FieldType textType = null;
+  
+  /** The number of entries indexed by the last call to indexZipFile. */
+  private final AtomicInteger entryCount = new AtomicInteger(0);
+  
+  /** The number of entries replaced by the last call to indexZipFile. */
+  private int changedCount = 0;
+  
+  /** The number of entries skipped because they did not change. */
+  private int unchangedCount = 0;
+  
+  /** The number of entries removed from the index because they left the zip. */
+  private int removedCount = 0;
+  
+  /** The number of entries whose text was skipped because they are binary. */
+  private int binaryCount = 0;
+  
+  /** The number of entries whose text was skipped because they are too large. */
+  private int oversizedCount = 0;
+  
+  /** The number of entries whose text was skipped because of their extension. */
+  private int excludedCount = 0;
+  
+  /** The number of entries read from nested archives. */
+  private int nestedCount = 0;
+  
+  /** The time taken by the last call to indexZipFile, in milliseconds. */
+  private long elapsedMillis = 0L;
+  
+  /** Marks the end of the queue for a worker thread. */
+  private static final IndexTask END_OF_QUEUE = new IndexTask(null, null, null, null, null, false);
+  
+  static
+  {
+    GRAMS_TYPE.setIndexed(true);
+    GRAMS_TYPE.setTokenized(true);
+    GRAMS_TYPE.setOmitNorms(true);
+    GRAMS_TYPE.setIndexOptions(IndexOptions.DOCS_ONLY);
+    GRAMS_TYPE.freeze();
+    
+    DIRS_TYPE.setIndexed(true);
+    DIRS_TYPE.setTokenized(true);
+    DIRS_TYPE.setOmitNorms(true);
+    DIRS_TYPE.setIndexOptions(IndexOptions.DOCS_ONLY);
+    DIRS_TYPE.freeze();
+  }
   
   /** Default constructor. */
   public ZipIndexer()
   {
-    analyzer = new StandardAnalyzer(Version.LUCENE_42);
+    Map<String, Analyzer> fieldAnalyzers = new HashMap<String, Analyzer>(2);
+    fieldAnalyzers.put(FIELD_GRAMS, new TrigramAnalyzer());
+    fieldAnalyzers.put(FIELD_DIRS, new Analyzer()
+    {
+      @Override
+      protected TokenStreamComponents createComponents(final String fieldName,
+                                                       final Reader reader)
+      {
+        return new TokenStreamComponents(new PathHierarchyTokenizer(reader));
+      }
+    });
+    analyzer = new PerFieldAnalyzerWrapper(new CodeAnalyzer(true), fieldAnalyzers);
+    queryAnalyzer = new CodeAnalyzer(false);
+    numThreads = WindowState.getInstance().getIndexThreads();
+    queueDepth = WindowState.getInstance().getIndexQueueDepth();
+    queueBytes = (int) Math.min(Integer.MAX_VALUE,
+        WindowState.getInstance().getIndexQueueBytes());
+  }
+  
+  
+  /**
+   * Set the settings for the installed directory.
+   * 
+   * @param pSettings the index settings
+   */
+  public void setSettings(final IndexSettings pSettings)
+  {
+    settings = ((pSettings == null) ? new IndexSettings() : pSettings);
   }
   
   
+  /**
+   * Index the contents of a zip file, only re-indexing the entries
+   * that changed since the last run.
+   * 
+   * @param fileName the name of the zip file
+   * @param indexDir the output directory for the index
+   */
   public void indexZipFile(final String fileName, final File indexDir)
+  {
+    indexZipFile(fileName, indexDir, false);
+  }
+  
+  
+  /**
+   * Index the contents of a zip file.  One thread reads and inflates
+   * the entries, and a pool of worker threads builds the documents
+   * and adds them to the shared index writer.  Unless a rebuild is
+   * requested, entries whose CRC, size and time match the existing
+   * index are skipped, and entries no longer in the zip are deleted.
+   * 
+   * @param fileName the name of the zip file
+   * @param indexDir the output directory for the index
+   * @param rebuild whether to discard the existing index
+   */
+  public void indexZipFile(final String fileName, final File indexDir,
+                           final boolean rebuild)
   {
     // Open the zip file
     final File file = new File(fileName);
@@ -50,52 +318,94 @@ public final class ZipIndexer
       return;
     }
     
+    entryCount.set(0);
+    changedCount = 0;
+    unchangedCount = 0;
+    removedCount = 0;
+    binaryCount = 0;
+    oversizedCount = 0;
+    excludedCount = 0;
+    nestedCount = 0;
+    final long startTime = System.currentTimeMillis();
+    
+    Directory index = null;
+    IndexWriter writer = null;
     try
     {
       // Ensure the index directory exists
       indexDir.mkdirs();
       
-      Directory index  = new SimpleFSDirectory(indexDir);
+      index = settings.openDirectory(indexDir);
+      
+      // Get the keys of the entries already in the index
+      final String layout = settings.getLayout();
+      final Map<String, EntryKey> existing =
+          (rebuild ? null : loadEntryKeys(index, layout));
+      textType = createTextType(settings);
       
       // Create the indexer
       IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_41, analyzer);
-      IndexWriter writer = new IndexWriter(index, config);
-      writer.deleteAll();
+      config.setOpenMode((existing == null) ? OpenMode.CREATE : OpenMode.CREATE_OR_APPEND);
+      config.setMaxThreadStates(Math.max(numThreads,
+          IndexWriterConfig.DEFAULT_MAX_THREAD_STATES));
+      config.setRAMBufferSizeMB(64.0);
+      writer = new IndexWriter(index, config);
       
-      // Iterate over the contents of the zip file
-      ZipInputStream zis = new ZipInputStream(new FileInputStream(file));
-      ZipEntry entry = null;
-      while ((entry = zis.getNextEntry()) != null)
+      // Start the workers.  They share the zip file to stream large entries.
+      final ZipFile zip = new ZipFile(file);
+      final ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+      boolean finished = false;
+      try
       {
-        // If it's a directory, skip it
-        if (entry.isDirectory())
+        final BlockingQueue<IndexTask> queue =
+            new ArrayBlockingQueue<IndexTask>(queueDepth);
+        queueBudget = new Semaphore(queueBytes);
+        final List<Future<?>> workers = new ArrayList<Future<?>>(numThreads);
+        for (int i = 0; i < numThreads; ++i)
         {
-          continue;
+          workers.add(pool.submit(new IndexWorker(queue, writer, zip)));
         }
         
-        // Get the contents of the file
-        final String name = entry.getName();
-        StringBuilder sb = new StringBuilder(1024);
-        int numRead = 0;
-        byte[] buf = new byte[1024];
-        while ((numRead = zis.read(buf)) != -1)
+        // Read the entries and hand them to the workers
+        readEntries(zip, writer, queue, workers, existing);
+        endQueue(queue, workers);
+        
+        // Wait for the workers to finish
+        waitForWorkers(workers);
+        finished = true;
+      }
+      finally
+      {
+        if (finished)
         {
-          sb.append(new String(buf, 0, numRead));
-          java.util.Arrays.fill(buf, ((byte) 0));
+          pool.shutdown();
         }
-        String content = sb.toString();
-        
-        // Index the contents of zipEntry
-        Document doc = new Document();
-        doc.add(new TextField("title", name, Field.Store.YES));
-        doc.add(new TextField("text", content, Field.Store.YES));
-        writer.addDocument(doc);
+        else
+        {
+          // Stop the workers before the writer is rolled back
+          pool.shutdownNow();
+          pool.awaitTermination(WORKER_STOP_SECONDS, TimeUnit.SECONDS);
+        }
+        zip.close();
+      }
+      
+      // Delete the entries that are no longer in the zip file
+      if (existing != null)
+      {
+        for (String name : existing.keySet())
+        {
+          writer.deleteDocuments(new Term(FIELD_ROOT, name));
+        }
+        removedCount = existing.size();
       }
       
       // Close the writer
+      Map<String, String> commitData = new HashMap<String, String>(2);
+      commitData.put(SCHEMA_KEY, SCHEMA_VERSION);
+      commitData.put(LAYOUT_KEY, layout);
+      writer.setCommitData(commitData);
       writer.close();
-      index.close();
-      zis.close();
+      writer = null;
     }
     catch (ZipException e)
     {
@@ -105,56 +415,1349 @@ public final class ZipIndexer
     {
       e.printStackTrace();
     }
+    catch (InterruptedException e)
+    {
+      Logger.error(e);
+      Thread.currentThread().interrupt();
+    }
+    finally
+    {
+      // On failure, discard the changes and release the write lock
+      if (writer != null)
+      {
+        rollback(writer);
+      }
+      if (index != null)
+      {
+        closeDirectory(index);
+      }
+    }
+    
+    elapsedMillis = System.currentTimeMillis() - startTime;
+    Logger.info(getThroughput());
+  }
+  
+  
+  /**
+   * Build the field type for the file text.  The text is only stored
+   * if the settings ask for it, since it can always be read from the
+   * zip file, and term vectors are only kept for highlighting.
+   * 
+   * @param pSettings the index settings
+   * @return the field type
+   */
+  private static FieldType createTextType(final IndexSettings pSettings)
+  {
+    FieldType type = new FieldType(pSettings.isStoreText()
+        ? TextField.TYPE_STORED : TextField.TYPE_NOT_STORED);
+    if (pSettings.isTermVectors())
+    {
+      type.setStoreTermVectors(true);
+      type.setStoreTermVectorPositions(true);
+      type.setStoreTermVectorOffsets(true);
+    }
+    
+    type.freeze();
+    return type;
   }
   
   
-  public List<SearchResult> queryIndex(final String term, final File indexDir)
+  /**
+   * Load the key of every entry in the existing index.
+   * 
+   * @param index the index directory
+   * @param layout the expected settings of the documents
+   * @return the map of entry name to key, or null if the index must be rebuilt
+   */
+  private static Map<String, EntryKey> loadEntryKeys(final Directory index,
+                                                     final String layout)
   {
-    List<SearchResult> results = new ArrayList<SearchResult>(10);
-	if (indexDir == null) {
-		System.err.println("The index directory parameter is null");
-		return results;
-	}
-	
+    if (!DirectoryReader.indexExists(index))
+    {
+      return null;
+    }
+    
+    Map<String, EntryKey> keys = null;
+    DirectoryReader reader = null;
     try
     {
-      // Create the query object for searching the file contents
-      final QueryParser queryParser = new QueryParser(Version.LUCENE_41, "text", analyzer);
-      queryParser.setAllowLeadingWildcard(true);
-      final Query query = queryParser.parse(term);
+      reader = DirectoryReader.open(index);
+      
+      // Check the index was built with the current document layout
+      final Map<String, String> userData = reader.getIndexCommit().getUserData();
+      if (!SCHEMA_VERSION.equals(userData.get(SCHEMA_KEY)))
+      {
+        Logger.info("The index layout has changed, so it will be rebuilt");
+        return null;
+      }
+      
+      // Changing how the text is stored or filtered also needs a rebuild
+      if (!layout.equals(userData.get(LAYOUT_KEY)))
+      {
+        Logger.info("The index settings have changed, so the index will be rebuilt");
+        return null;
+      }
+      
+      keys = new HashMap<String, EntryKey>(Math.max(16, reader.numDocs() * 2));
+      for (AtomicReaderContext context : reader.leaves())
+      {
+        final AtomicReader leaf = context.reader();
+        final Bits liveDocs = leaf.getLiveDocs();
+        final int maxDoc = leaf.maxDoc();
+        for (int i = 0; i < maxDoc; ++i)
+        {
+          if ((liveDocs != null) && !liveDocs.get(i))
+          {
+            continue;
+          }
+          
+          Document doc = leaf.document(i, KEY_FIELDS);
+          keys.put(doc.get(FIELD_ROOT), new EntryKey(getLong(doc, FIELD_CRC),
+              getLong(doc, FIELD_SIZE), getLong(doc, FIELD_TIME)));
+        }
+      }
+    }
+    catch (IOException e)
+    {
+      Logger.error(e);
+      keys = null;
+    }
+    finally
+    {
+      if (reader != null)
+      {
+        try
+        {
+          reader.close();
+        }
+        catch (IOException e)
+        {
+          Logger.error(e);
+        }
+      }
+    }
+    
+    return keys;
+  }
+  
+  
+  /**
+   * Return the value of a stored numeric field.
+   * 
+   * @param doc the document
+   * @param field the name of the field
+   * @return the value of the field, or -1 if it is not set
+   */
+  private static long getLong(final Document doc, final String field)
+  {
+    final IndexableField value = doc.getField(field);
+    if ((value == null) || (value.numericValue() == null))
+    {
+      return -1L;
+    }
+    
+    return value.numericValue().longValue();
+  }
+  
+  
+  /**
+   * Read and inflate the entries in the zip file, and put them on the
+   * queue for the worker threads.  The entries are listed from the
+   * central directory, so unchanged entries are never inflated.  Large
+   * entries are queued without their contents, and the contents in the
+   * queue are kept within a byte budget.  The entries of nested
+   * archives are read as streams and queued with composite paths.
+   * 
+   * @param zip the zip file
+   * @param writer the index writer, to delete the old copies of changed entries
+   * @param queue the queue of entries to index
+   * @param workers the worker threads, to stop reading if one fails
+   * @param existing the keys of the indexed entries (null to index everything);
+   *        entries found in the zip are removed from the map
+   * @throws IOException if the zip file cannot be read
+   * @throws InterruptedException if interrupted while waiting on the queue
+   */
+  private void readEntries(final ZipFile zip,
+                           final IndexWriter writer,
+                           final BlockingQueue<IndexTask> queue,
+                           final List<Future<?>> workers,
+                           final Map<String, EntryKey> existing)
+    throws IOException, InterruptedException
+  {
+    // Iterate over the contents of the zip file
+    Enumeration<? extends ZipEntry> entries = zip.entries();
+    while (entries.hasMoreElements())
+    {
+      // If it's a directory, skip it
+      final ZipEntry entry = entries.nextElement();
+      if (entry.isDirectory())
+      {
+        continue;
+      }
+      
+      // Skip the entry if it has not changed
+      final String name = entry.getName();
+      final EntryKey key = new EntryKey(entry.getCrc(), entry.getSize(), entry.getTime());
+      final EntryKey oldKey = ((existing == null) ? null : existing.remove(name));
+      if (key.equals(oldKey))
+      {
+        ++unchangedCount;
+        continue;
+      }
       
-      // Create a search for the index
-      Directory index  = new SimpleFSDirectory(indexDir);
-      final DirectoryReader reader = DirectoryReader.open(index);
-      final IndexSearcher searcher = new IndexSearcher(reader);
+      // Delete the old documents for the entry, including any from inside
+      // it.  Documents the workers add after this are not affected.
+      if (oldKey != null)
+      {
+        writer.deleteDocuments(new Term(FIELD_ROOT, name));
+        ++changedCount;
+      }
       
-      // Query the collection
-      final TopScoreDocCollector collector = TopScoreDocCollector.create(10000, true);
-      searcher.search(query, collector);
+      // Decide whether to index the text of the entry
+      final boolean nested = settings.isNested() && ArchiveReader.isArchive(name);
+      byte[] data = null;
+      boolean indexText = false;
+      if (nested)
+      {
+        // Only the path of a nested archive is indexed
+        indexText = false;
+      }
+      else if (!settings.isExtensionIndexed(name))
+      {
+        ++excludedCount;
+      }
+      else if ((settings.getMaxSize() > 0L) && (entry.getSize() > settings.getMaxSize()))
+      {
+        ++oversizedCount;
+      }
+      else
+      {
+        // Get the contents of the file, unless the worker should stream it
+        data = readEntry(zip, entry);
+        indexText = !isBinary(zip, entry, data);
+        if (!indexText)
+        {
+          ++binaryCount;
+          data = null;
+        }
+      }
       
-      // Iterate over the search results
-      final ScoreDoc[] hits = collector.topDocs().scoreDocs;
-      for (ScoreDoc hit : hits)
+      // Leave out skipped entries if their paths are not indexed, but
+      // keep their keys so a refresh does not read them again
+      final IndexTask task = (indexText || settings.isIndexSkippedPaths())
+          ? new IndexTask(name, name, entry, key, data, indexText)
+          : new IndexTask(null, name, null, key, null, false);
+      if (!offerTask(queue, workers, task))
       {
-        Document doc = searcher.doc(hit.doc);
-        results.add(new SearchResult(doc.get("title"), hit.score));
+        return;
       }
       
-      // Close the reader
-      reader.close();
-      index.close();
+      // Read the entries of a nested archive
+      if (nested)
+      {
+        InputStream is = zip.getInputStream(entry);
+        try
+        {
+          if (!readNestedEntries(is, name, name, key, 1, queue, workers))
+          {
+            return;
+          }
+        }
+        finally
+        {
+          is.close();
+        }
+      }
     }
-    catch (ParseException e)
+  }
+  
+  
+  /**
+   * Read the entries of a nested archive, and put them on the queue for
+   * the worker threads.  Since the archive is a stream, every entry
+   * whose text is indexed is read into memory, up to the size limit.
+   * 
+   * @param is the stream of the archive's bytes
+   * @param archive the path of the archive
+   * @param root the name of the top-level entry
+   * @param key the key of the top-level entry
+   * @param depth the nesting depth of the archive
+   * @param queue the queue of entries to index
+   * @param workers the worker threads, to stop reading if one fails
+   * @return false if a worker failed, so reading should stop
+   * @throws IOException if the archive cannot be read
+   * @throws InterruptedException if interrupted while waiting on the queue
+   */
+  private boolean readNestedEntries(final InputStream is,
+                                    final String archive,
+                                    final String root,
+                                    final EntryKey key,
+                                    final int depth,
+                                    final BlockingQueue<IndexTask> queue,
+                                    final List<Future<?>> workers)
+    throws IOException, InterruptedException
+  {
+    final ZipInputStream zis = ArchiveReader.openNested(is);
+    try
     {
-      System.err.println("Parse exception: " + e.getMessage());
-      // e.printStackTrace();
+      ZipEntry entry = null;
+      while ((entry = zis.getNextEntry()) != null)
+      {
+        if (entry.isDirectory())
+        {
+          continue;
+        }
+        
+        final String name = entry.getName();
+        final String path = ArchiveReader.join(archive, name);
+        final boolean nested = ArchiveReader.isArchive(name) && (depth < ArchiveReader.MAX_DEPTH);
+        ++nestedCount;
+        
+        // Decide whether to index the text of the entry
+        byte[] data = null;
+        boolean indexText = false;
+        if (nested)
+        {
+          // Only the path of a nested archive is indexed
+          indexText = false;
+        }
+        else if (!settings.isExtensionIndexed(name))
+        {
+          ++excludedCount;
+        }
+        else if ((data = readLimited(zis, settings.getMaxSize())) == null)
+        {
+          ++oversizedCount;
+        }
+        else if (TextDecoder.isBinary(data, data.length))
+        {
+          ++binaryCount;
+          data = null;
+        }
+        else
+        {
+          indexText = true;
+        }
+        
+        if ((indexText || settings.isIndexSkippedPaths())
+            && !offerTask(queue, workers, new IndexTask(path, root, null, key, data, indexText)))
+        {
+          return false;
+        }
+        
+        if (nested && !readNestedEntries(zis, path, root, key, depth + 1, queue, workers))
+        {
+          return false;
+        }
+      }
     }
-    catch (IOException e)
+    catch (ZipException e)
     {
-      e.printStackTrace();
+      // Keep the entries read so far, and carry on with the next archive
+      Logger.error("Unable to read nested archive " + archive + ": " + e.getMessage());
+    }
+    finally
+    {
+      zis.close();
+    }
+    
+    return true;
+  }
+  
+  
+  /**
+   * Read the current entry of a nested archive, up to a size limit.
+   * 
+   * @param is the stream of the entry
+   * @param limit the largest size to read, or zero for no limit
+   * @return the contents, or null if the entry is larger than the limit
+   * @throws IOException if the entry cannot be read
+   */
+  private static byte[] readLimited(final InputStream is, final long limit)
+    throws IOException
+  {
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+    final byte[] buf = new byte[8192];
+    int numRead = 0;
+    while ((numRead = is.read(buf)) > 0)
+    {
+      baos.write(buf, 0, numRead);
+      if ((limit > 0L) && (baos.size() > limit))
+      {
+        return null;
+      }
+    }
+    
+    return baos.toByteArray();
+  }
+  
+  
+  /**
+   * Put a task on the queue, waiting while the queue is full or its
+   * contents would go over the byte budget.  The worker that indexes
+   * the task gives its bytes back to the budget.
+   * 
+   * @param queue the queue of entries to index
+   * @param workers the worker threads
+   * @param task the task
+   * @return false if a worker stopped, so the task was not queued
+   * @throws InterruptedException if interrupted while waiting on the queue
+   */
+  private boolean offerTask(final BlockingQueue<IndexTask> queue,
+                            final List<Future<?>> workers,
+                            final IndexTask task)
+    throws InterruptedException
+  {
+    final int bytes = getBudgetBytes(task);
+    while (!queueBudget.tryAcquire(bytes, 1L, TimeUnit.SECONDS))
+    {
+      if (anyWorkerDone(workers))
+      {
+        return false;
+      }
+    }
+    
+    while (!queue.offer(task, 1L, TimeUnit.SECONDS))
+    {
+      if (anyWorkerDone(workers))
+      {
+        queueBudget.release(bytes);
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  
+  /**
+   * Return the bytes of the queue's budget used by a task.  A task
+   * larger than the whole budget uses all of it, so it waits for the
+   * queue to empty.
+   * 
+   * @param task the task
+   * @return the number of bytes
+   */
+  private int getBudgetBytes(final IndexTask task)
+  {
+    return ((task.data == null) ? 0 : Math.min(task.data.length, queueBytes));
+  }
+  
+  
+  /**
+   * Read the contents of an entry into memory, if it is small enough.
+   * 
+   * @param zip the zip file
+   * @param entry the entry
+   * @return the contents, or null if the entry should be streamed
+   * @throws IOException if the entry cannot be read
+   */
+  private static byte[] readEntry(final ZipFile zip, final ZipEntry entry)
+    throws IOException
+  {
+    if ((entry.getSize() < 0L) || (entry.getSize() > STREAM_THRESHOLD))
+    {
+      return null;
+    }
+    
+    InputStream is = zip.getInputStream(entry);
+    try
+    {
+      return Utility.readFully(is, entry.getSize());
+    }
+    finally
+    {
+      is.close();
+    }
+  }
+  
+  
+  /**
+   * Return whether an entry looks like a binary file.  Only the start
+   * of the entry is examined.
+   * 
+   * @param zip the zip file
+   * @param entry the entry
+   * @param data the contents of the entry, or null to read the start of it
+   * @return whether the entry is binary
+   * @throws IOException if the entry cannot be read
+   */
+  private static boolean isBinary(final ZipFile zip, final ZipEntry entry,
+                                  final byte[] data)
+    throws IOException
+  {
+    if (data != null)
+    {
+      return TextDecoder.isBinary(data, data.length);
+    }
+    
+    final byte[] prefix = new byte[TextDecoder.SNIFF_BYTES];
+    int length = 0;
+    InputStream is = zip.getInputStream(entry);
+    try
+    {
+      int numRead = 0;
+      while ((length < prefix.length)
+             && ((numRead = is.read(prefix, length, prefix.length - length)) > 0))
+      {
+        length += numRead;
+      }
+    }
+    finally
+    {
+      is.close();
+    }
+    
+    return TextDecoder.isBinary(prefix, length);
+  }
+  
+  
+  /**
+   * Roll back the changes of a failed indexing run, which also closes
+   * the writer and releases the write lock.
+   * 
+   * @param writer the index writer
+   */
+  private static void rollback(final IndexWriter writer)
+  {
+    try
+    {
+      writer.rollback();
+    }
+    catch (IOException e)
+    {
+      Logger.error("Unable to roll back the index writer: " + e.getMessage());
+    }
+  }
+  
+  
+  /**
+   * Close an index directory, logging any failure.
+   * 
+   * @param index the index directory
+   */
+  private static void closeDirectory(final Directory index)
+  {
+    try
+    {
+      index.close();
+    }
+    catch (IOException e)
+    {
+      Logger.error(e);
+    }
+  }
+  
+  
+  /**
+   * Put one end marker on the queue for each worker thread that is
+   * still running.
+   * 
+   * @param queue the queue of entries to index
+   * @param workers the worker threads
+   * @throws InterruptedException if interrupted while waiting on the queue
+   */
+  private static void endQueue(final BlockingQueue<IndexTask> queue,
+                               final List<Future<?>> workers)
+    throws InterruptedException
+  {
+    int remaining = workers.size();
+    while (remaining > 0)
+    {
+      if (queue.offer(END_OF_QUEUE, 1L, TimeUnit.SECONDS))
+      {
+        --remaining;
+      }
+      else if (allWorkersDone(workers))
+      {
+        break;
+      }
+    }
+  }
+  
+  
+  /**
+   * Return whether every worker has stopped.
+   * 
+   * @param workers the worker threads
+   * @return whether all workers are done
+   */
+  private static boolean allWorkersDone(final List<Future<?>> workers)
+  {
+    for (Future<?> worker : workers)
+    {
+      if (!worker.isDone())
+      {
+        return false;
+      }
+    }
+    
+    return true;
+  }
+  
+  
+  /**
+   * Return whether any worker has stopped before the end of the queue.
+   * 
+   * @param workers the worker threads
+   * @return whether any worker is done
+   */
+  private static boolean anyWorkerDone(final List<Future<?>> workers)
+  {
+    for (Future<?> worker : workers)
+    {
+      if (worker.isDone())
+      {
+        return true;
+      }
+    }
+    
+    return false;
+  }
+  
+  
+  /**
+   * Wait for all worker threads to finish, and rethrow the first failure.
+   * 
+   * @param workers the worker threads
+   * @throws IOException if a worker failed to add a document
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private static void waitForWorkers(final List<Future<?>> workers)
+    throws IOException, InterruptedException
+  {
+    IOException failure = null;
+    for (Future<?> worker : workers)
+    {
+      try
+      {
+        worker.get();
+      }
+      catch (ExecutionException e)
+      {
+        Logger.error("Indexing worker failed: " + e.getCause());
+        if (failure == null)
+        {
+          failure = (e.getCause() instanceof IOException) ? (IOException) e.getCause()
+              : new IOException("Indexing worker failed", e.getCause());
+        }
+      }
+    }
+    
+    if (failure != null)
+    {
+      throw failure;
+    }
+  }
+  
+  
+  /**
+   * Return the indexing rate of the last run.
+   * 
+   * @return the number of entries indexed per second
+   */
+  public double getEntriesPerSecond()
+  {
+    if (elapsedMillis <= 0L)
+    {
+      return entryCount.get();
+    }
+    
+    return (entryCount.get() * 1000.0) / elapsedMillis;
+  }
+  
+  
+  /**
+   * Return a description of the throughput of the last run.
+   * 
+   * @return the throughput as a string
+   */
+  public String getThroughput()
+  {
+    return String.format("Indexed %d entries in %.1f seconds (%.1f entries/sec, %d threads); "
+        + "%d changed, %d unchanged, %d removed; %d from nested archives; "
+        + "text skipped for %d binary, %d oversized and %d excluded entries",
+        entryCount.get(), (elapsedMillis / 1000.0), getEntriesPerSecond(), numThreads,
+        changedCount, unchangedCount, removedCount, nestedCount, binaryCount,
+        oversizedCount, excludedCount);
+  }
+  
+  
+  /**
+   * The CRC, size and time of a zip entry, used to detect changes.
+   */
+  private static final class EntryKey
+  {
+    /** The CRC-32 of the entry. */
+    private final long crc;
+    
+    /** The uncompressed size of the entry. */
+    private final long size;
+    
+    /** The modification time of the entry. */
+    private final long time;
+    
+    /**
+     * Constructor.
+     * 
+     * @param lCrc the CRC-32
+     * @param lSize the uncompressed size
+     * @param lTime the modification time
+     */
+    public EntryKey(final long lCrc, final long lSize, final long lTime)
+    {
+      crc = lCrc;
+      size = lSize;
+      time = lTime;
+    }
+    
+    
+    @Override
+    public boolean equals(final Object obj)
+    {
+      if (!(obj instanceof EntryKey))
+      {
+        return false;
+      }
+      
+      final EntryKey key = (EntryKey) obj;
+      return ((crc == key.crc) && (size == key.size) && (time == key.time));
+    }
+    
+    
+    @Override
+    public int hashCode()
+    {
+      return (int) (crc ^ (size * 31L) ^ (time >>> 32) ^ time);
+    }
+  }
+  
+  
+  /**
+   * An inflated zip entry waiting to be indexed.
+   */
+  private static final class IndexTask
+  {
+    /** The path of the entry, or null to only record the key of the top-level entry. */
+    private final String name;
+    
+    /** The name of the top-level entry that the entry came from. */
+    private final String root;
+    
+    /** The top-level zip entry, to stream its contents. */
+    private final ZipEntry entry;
+    
+    /** The CRC, size and time of the top-level entry. */
+    private final EntryKey key;
+    
+    /** The contents of the entry, or null to stream it from the zip file. */
+    private final byte[] data;
+    
+    /** Whether to index the text of the entry, or only its path. */
+    private final boolean indexText;
+    
+    /**
+     * Constructor.
+     * 
+     * @param sName the path of the entry, or null to only record the key
+     * @param sRoot the name of the top-level entry
+     * @param pEntry the top-level zip entry, if the contents can be streamed
+     * @param pKey the key of the top-level entry
+     * @param pData the entry contents, or null to stream them
+     * @param bText whether to index the text of the entry
+     */
+    public IndexTask(final String sName, final String sRoot,
+                     final ZipEntry pEntry, final EntryKey pKey,
+                     final byte[] pData, final boolean bText)
+    {
+      name = sName;
+      root = sRoot;
+      entry = pEntry;
+      key = pKey;
+      data = pData;
+      indexText = bText;
+    }
+  }
+  
+  
+  /**
+   * A worker thread that takes entries off the queue, builds a document
+   * for each one, and adds it to the index.
+   */
+  private final class IndexWorker implements Callable<Void>
+  {
+    /** The queue of entries to index. */
+    private final BlockingQueue<IndexTask> queue;
+    
+    /** The shared index writer. */
+    private final IndexWriter writer;
+    
+    /** The zip file, for streaming large entries. */
+    private final ZipFile zip;
+    
+    /**
+     * Constructor.
+     * 
+     * @param pQueue the queue of entries
+     * @param pWriter the index writer
+     * @param pZip the zip file
+     */
+    public IndexWorker(final BlockingQueue<IndexTask> pQueue,
+                       final IndexWriter pWriter,
+                       final ZipFile pZip)
+    {
+      queue = pQueue;
+      writer = pWriter;
+      zip = pZip;
+    }
+    
+    
+    /**
+     * Open a reader over the text of an entry.  The analyzer closes
+     * the reader once the field is indexed.
+     * 
+     * @param task the entry
+     * @return the reader
+     * @throws IOException if the entry cannot be read
+     */
+    private Reader openText(final IndexTask task) throws IOException
+    {
+      if (task.data != null)
+      {
+        return TextDecoder.openReader(task.data, settings.getCharset());
+      }
+      
+      return TextDecoder.openReader(zip.getInputStream(task.entry), settings.getCharset());
+    }
+    
+    
+    /**
+     * Index entries until the end of the queue is reached.
+     * 
+     * @return null
+     * @throws Exception if the document could not be added
+     */
+    @Override
+    public Void call() throws Exception
+    {
+      IndexTask task = null;
+      while ((task = queue.take()) != END_OF_QUEUE)
+      {
+        try
+        {
+          addDocument(task);
+        }
+        finally
+        {
+          queueBudget.release(getBudgetBytes(task));
+        }
+      }
+      
+      return null;
+    }
+    
+    
+    /**
+     * Build the document for an entry and add it to the index.
+     * 
+     * @param task the entry
+     * @throws IOException if the document could not be added
+     */
+    private void addDocument(final IndexTask task) throws IOException
+    {
+      if (task.name == null)
+      {
+        addKeyDocument(task);
+        return;
+      }
+      
+      // Index the contents of zipEntry
+      Document doc = new Document();
+      doc.add(new TextField(FIELD_TITLE, task.name, Field.Store.YES));
+      doc.add(new StringField(FIELD_PATH, task.name, Field.Store.YES));
+      doc.add(new StringField(FIELD_ROOT, task.root, Field.Store.YES));
+      final String dir = Utility.getDirNameFromZipEntry(task.name);
+      doc.add(new StringField(FIELD_NAME,
+          Utility.getFileNameFromZipEntry(task.name).toLowerCase(), Field.Store.NO));
+      doc.add(new StringField(FIELD_DIR, dir, Field.Store.NO));
+      doc.add(new Field(FIELD_DIRS, dir, DIRS_TYPE));
+      addFacet(doc, FIELD_FACET_DIR, FacetCounts.getTopDirectory(task.name));
+      addFacet(doc, FIELD_FACET_MODULE, FacetCounts.getModule(task.name));
+      addFacet(doc, FIELD_FACET_EXT, FacetCounts.getExtension(task.name));
+      doc.add(new StoredField(FIELD_CRC, task.key.crc));
+      doc.add(new StoredField(FIELD_SIZE, task.key.size));
+      doc.add(new StoredField(FIELD_TIME, task.key.time));
+      // Only the path of a skipped entry is indexed
+      if (task.indexText)
+      {
+        doc.add(new StringField(FIELD_HAS_TEXT, HAS_TEXT, Field.Store.YES));
+        if (textType.stored())
+        {
+          // Stored text has to be held as a string
+          final String content = readText(openText(task));
+          doc.add(new Field(FIELD_TEXT, content, textType));
+          doc.add(new Field(FIELD_GRAMS, content, GRAMS_TYPE));
+        }
+        else
+        {
+          // Each field decodes the entry through its own reader
+          doc.add(new Field(FIELD_TEXT, openText(task), textType));
+          doc.add(new Field(FIELD_GRAMS, openText(task), GRAMS_TYPE));
+        }
+      }
+      writer.addDocument(doc);
+      entryCount.incrementAndGet();
+    }
+    
+    
+    /**
+     * Add the document holding only the key of a skipped entry.  It is
+     * not found by any search, but lets a refresh tell that the entry
+     * has not changed without reading it.
+     * 
+     * @param task the entry
+     * @throws IOException if the document could not be added
+     */
+    private void addKeyDocument(final IndexTask task) throws IOException
+    {
+      Document doc = new Document();
+      doc.add(new StringField(FIELD_ROOT, task.root, Field.Store.YES));
+      doc.add(new StringField(FIELD_KEY_ONLY, KEY_ONLY, Field.Store.NO));
+      doc.add(new StoredField(FIELD_CRC, task.key.crc));
+      doc.add(new StoredField(FIELD_SIZE, task.key.size));
+      doc.add(new StoredField(FIELD_TIME, task.key.time));
+      writer.addDocument(doc);
+    }
+  }
+  
+  
+  /**
+   * Add a facet value to a document.  The value is indexed, so a search
+   * can be filtered by it, and kept as a doc value, so the hits of a
+   * search can be counted by it.
+   * 
+   * @param doc the document
+   * @param field the facet field
+   * @param value the value
+   */
+  private static void addFacet(final Document doc, final String field, final String value)
+  {
+    doc.add(new StringField(field, value, Field.Store.NO));
+    doc.add(new SortedDocValuesField(field, new BytesRef(value)));
+  }
+  
+  
+  /**
+   * Read all of the text from a reader, and close it.
+   * 
+   * @param reader the reader
+   * @return the text
+   * @throws IOException if the text cannot be read
+   */
+  private static String readText(final Reader reader) throws IOException
+  {
+    try
+    {
+      final StringBuilder sb = new StringBuilder(4096);
+      final char[] buf = new char[4096];
+      int numRead = 0;
+      while ((numRead = reader.read(buf)) > 0)
+      {
+        sb.append(buf, 0, numRead);
+      }
+      
+      return sb.toString();
+    }
+    finally
+    {
+      reader.close();
+    }
+  }
+  
+  
+  /**
+   * Parse a query string into a query on the file contents.  The
+   * documents that only hold the key of a skipped entry are left out,
+   * so a query such as *:* does not match them.
+   * 
+   * @param term the query string
+   * @return the query
+   * @throws ParseException if the query string is invalid
+   */
+  public Query parseQuery(final String term) throws ParseException
+  {
+    final QueryParser queryParser = new QueryParser(Version.LUCENE_41, FIELD_TEXT, queryAnalyzer);
+    queryParser.setAllowLeadingWildcard(true);
+    final BooleanQuery query = new BooleanQuery(true);
+    query.add(queryParser.parse(term), Occur.MUST);
+    query.add(new TermQuery(new Term(FIELD_KEY_ONLY, KEY_ONLY)), Occur.MUST_NOT);
+    return query;
+  }
+  
+  
+  /**
+   * Fetch one page of the results of a search, ranked by score.  Only
+   * the hits on the page are collected and looked up, and the hits
+   * before it are skipped using the cursor of the previous page.  The
+   * pages of a search should use the same options, and an index that
+   * is refreshed between pages can shift the results.
+   * 
+   * @param options the search options
+   * @param previous the previous page, or null for the first page
+   * @param pageSize the maximum number of results on the page
+   * @param handle the handle on the index
+   * @return the page of results
+   */
+  public SearchPage queryPage(final SearchOptions options, final SearchPage previous,
+                              final int pageSize, final IndexHandle handle)
+  {
+    final int start = (previous == null) ? 0 : previous.getEnd();
+    if (handle == null)
+    {
+      System.err.println("The index handle parameter is null");
+      return SearchPage.empty(start);
+    }
+    
+    // Stop at the maximum number of results
+    final int max = options.getMaxResults();
+    int numHits = pageSize;
+    if (max > 0)
+    {
+      numHits = Math.min(numHits, max - start);
+    }
+    
+    if ((numHits <= 0) || ((previous != null) && !previous.hasMore()))
+    {
+      return SearchPage.empty(start);
+    }
+    
+    SearchPage page = SearchPage.empty(start);
+    IndexSearcher searcher = null;
+    try
+    {
+      // Create the query object for searching the file contents
+      final long startTime = System.nanoTime();
+      final Query query = parseQuery(options.getQuery());
+      
+      // Collect the hits after the cursor, keeping the hits found so
+      // far if the time limit runs out
+      searcher = handle.acquire();
+      numHits = Math.min(numHits, Math.max(1, searcher.getIndexReader().maxDoc()));
+      final TopScoreDocCollector collector = TopScoreDocCollector.create(numHits,
+          (previous == null) ? null : previous.getAfter(), false);
+      // The facets are counted over every hit, so only for the first page
+      final FacetCollector facets = (options.isCountFacets() && (previous == null))
+          ? new FacetCollector(collector) : null;
+      boolean truncated = false;
+      try
+      {
+        final Filter filter = buildFilter(options);
+        searcher.search(query, filter, limitTime((facets == null) ? collector : facets));
+      }
+      catch (TimeExceededException e)
+      {
+        truncated = true;
+      }
+      final TopDocs hits = collector.topDocs();
+      
+      // Only load the names of the files on the page
+      List<SearchResult> results = new ArrayList<SearchResult>(hits.scoreDocs.length);
+      for (ScoreDoc hit : hits.scoreDocs)
+      {
+        Document doc = searcher.doc(hit.doc, RESULT_FIELDS);
+        SearchResult result = new SearchResult(doc.get(FIELD_TITLE), hit.score);
+        result.setHasText(doc.get(FIELD_HAS_TEXT) != null);
+        results.add(result);
+      }
+      
+      final int totalHits = (max > 0) ? Math.min(hits.totalHits, max) : hits.totalHits;
+      final ScoreDoc last = (hits.scoreDocs.length == 0) ? null
+          : hits.scoreDocs[hits.scoreDocs.length - 1];
+      page = new SearchPage(results, start, totalHits, last, truncated);
+      if (facets != null)
+      {
+        page.setFacets(facets.getCounts());
+      }
+      SlowQueryLog.getInstance().record(query, hits.totalHits,
+          (System.nanoTime() - startTime) / 1000000L, truncated);
+    }
+    catch (ParseException e)
+    {
+      System.err.println("Parse exception: " + e.getMessage());
+      // e.printStackTrace();
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
+    }
+    finally
+    {
+      handle.release(searcher);
+    }
+    
+    return page;
+  }
+  
+  
+  /**
+   * Search an open index without ranking the results.  The path of
+   * each matching file is passed to the handler as it is found, in
+   * index order, until the handler stops the search or the maximum
+   * number of results is reached.
+   * 
+   * @param options the search options
+   * @param handler the handler for the matching paths
+   * @param handle the handle on the index
+   * @return the number of paths passed to the handler
+   */
+  public int streamIndex(final SearchOptions options, final IResultHandler handler,
+                         final IndexHandle handle)
+  {
+    if (handle == null)
+    {
+      System.err.println("The index handle parameter is null");
+      return 0;
+    }
+    
+    final PathCollector collector = new PathCollector(handler, options.getMaxResults());
+    final long startTime = System.nanoTime();
+    Query query = null;
+    boolean truncated = false;
+    IndexSearcher searcher = null;
+    try
+    {
+      query = parseQuery(options.getQuery());
+      searcher = handle.acquire();
+      final Filter filter = buildFilter(options);
+      searcher.search(query, filter, limitTime(collector));
+    }
+    catch (StopCollecting e)
+    {
+      // The handler or the limit ended the search early
+      Logger.debug("Stopped streaming after " + collector.count + " results");
+    }
+    catch (TimeExceededException e)
+    {
+      Logger.info("The search time limit ran out after " + collector.count + " results");
+      truncated = true;
+    }
+    catch (ParseException e)
+    {
+      System.err.println("Parse exception: " + e.getMessage());
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace();
+    }
+    finally
+    {
+      handle.release(searcher);
+    }
+    
+    if (query != null)
+    {
+      SlowQueryLog.getInstance().record(query, collector.count,
+          (System.nanoTime() - startTime) / 1000000L, truncated);
+    }
+    
+    return collector.count;
+  }
+  
+  
+  /**
+   * Wrap a collector so it stops when the search time limit runs out.
+   * The clock starts when this is called, so it must be called just
+   * before searching.  Rewriting the query, such as expanding a
+   * wildcard into its terms, then counts against the limit.  The
+   * rewrite itself cannot be interrupted, but a search whose rewrite
+   * used up the limit stops at its first hit.  The limit is read from
+   * the window state, so a change applies to the next search.
+   * 
+   * @param collector the collector
+   * @return the collector with a time limit, or the collector if there is no limit
+   */
+  public static Collector limitTime(final Collector collector)
+  {
+    final long searchTimeout = WindowState.getInstance().getSearchTimeoutMillis();
+    if (searchTimeout <= 0L)
+    {
+      return collector;
+    }
+    
+    // Without a baseline the clock would start at the first segment,
+    // after the query has been rewritten
+    TimeLimitingCollector limited = new TimeLimitingCollector(collector,
+        TimeLimitingCollector.getGlobalCounter(), searchTimeout);
+    limited.setBaseline();
+    return limited;
+  }
+  
+  
+  /**
+   * Thrown by the path collector to end a search early.
+   */
+  private static final class StopCollecting extends RuntimeException
+  {
+    /** Default serial version ID. */
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Default constructor.
+     */
+    public StopCollecting()
+    {
+      super();
+    }
+  }
+  
+  
+  /**
+   * A collector that passes the path of each matching document to a
+   * handler, without computing scores.
+   */
+  private static final class PathCollector extends Collector
+  {
+    /** The handler for the matching paths. */
+    private final IResultHandler handler;
+    
+    /** The maximum number of paths, or zero for no limit. */
+    private final int max;
+    
+    /** The number of paths passed to the handler. */
+    private int count = 0;
+    
+    /** The reader of the current segment. */
+    private AtomicReader reader = null;
+    
+    /**
+     * Constructor.
+     * 
+     * @param pHandler the handler for the matching paths
+     * @param nMax the maximum number of paths, or zero for no limit
+     */
+    public PathCollector(final IResultHandler pHandler, final int nMax)
+    {
+      handler = pHandler;
+      max = nMax;
+    }
+    
+    
+    @Override
+    public void setScorer(final Scorer scorer)
+    {
+      // Scores are not used
+    }
+    
+    
+    @Override
+    public void collect(final int doc) throws IOException
+    {
+      final String path = reader.document(doc, PATH_FIELD).get(FIELD_PATH);
+      ++count;
+      if (!handler.processResult(path) || ((max > 0) && (count >= max)))
+      {
+        throw new StopCollecting();
+      }
+    }
+    
+    
+    @Override
+    public void setNextReader(final AtomicReaderContext context)
+    {
+      reader = context.reader();
+    }
+    
+    
+    @Override
+    public boolean acceptsDocsOutOfOrder()
+    {
+      return true;
+    }
+  }
+  
+  
+  /**
+   * Build the filter for the file and directory patterns of a search.
+   * A result has to match one of the file patterns, if there are any,
+   * one of the directory patterns, if there are any, and each of the
+   * facet values chosen.
+   * 
+   * @param options the search options
+   * @return the filter, or null if the search has no patterns
+   */
+  public static Filter buildFilter(final SearchOptions options)
+  {
+    if (!options.hasFilters())
+    {
+      return null;
+    }
+    
+    final BooleanQuery filter = new BooleanQuery();
+    if (!options.getFilePatterns().isEmpty())
+    {
+      // The file names are indexed in lower case, so the match ignores case
+      final BooleanQuery names = new BooleanQuery();
+      for (String pattern : options.getFilePatterns())
+      {
+        names.add(new WildcardQuery(new Term(FIELD_NAME, pattern.toLowerCase())), Occur.SHOULD);
+      }
+      filter.add(names, Occur.MUST);
+    }
+    
+    if (!options.getDirPatterns().isEmpty())
+    {
+      final BooleanQuery dirs = new BooleanQuery();
+      for (String pattern : options.getDirPatterns())
+      {
+        if ((pattern.length() > 1) && pattern.endsWith("/"))
+        {
+          // The directory and everything below it
+          dirs.add(new TermQuery(new Term(FIELD_DIRS,
+              pattern.substring(0, pattern.length() - 1))), Occur.SHOULD);
+        }
+        else
+        {
+          // Any directory containing the pattern
+          dirs.add(new WildcardQuery(new Term(FIELD_DIR,
+              WildcardQuery.WILDCARD_STRING + escapeWildcards(pattern)
+              + WildcardQuery.WILDCARD_STRING)), Occur.SHOULD);
+        }
+      }
+      filter.add(dirs, Occur.MUST);
+    }
+    
+    // Each facet value chosen has to match
+    for (Map.Entry<String, String> facet : options.getFacetFilters().entrySet())
+    {
+      filter.add(new TermQuery(new Term(facet.getKey(), facet.getValue())), Occur.MUST);
+    }
+    
+    return new QueryWrapperFilter(filter);
+  }
+  
+  
+  /**
+   * Escape the wildcard characters in a string, so it matches literally
+   * in a wildcard query.
+   * 
+   * @param str the string
+   * @return the escaped string
+   */
+  private static String escapeWildcards(final String str)
+  {
+    final StringBuilder sb = new StringBuilder(str.length() + 4);
+    for (int i = 0; i < str.length(); ++i)
+    {
+      final char ch = str.charAt(i);
+      if ((ch == WildcardQuery.WILDCARD_STRING) || (ch == WildcardQuery.WILDCARD_CHAR)
+          || (ch == WildcardQuery.WILDCARD_ESCAPE))
+      {
+        sb.append(WildcardQuery.WILDCARD_ESCAPE);
+      }
+      sb.append(ch);
     }
     
-    return results;
+    return sb.toString();
   }
   
   